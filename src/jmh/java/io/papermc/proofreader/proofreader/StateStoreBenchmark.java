@@ -0,0 +1,81 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.service.StateStore;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import org.openjdk.jmh.annotations.*;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update throughput and recovery time of the state store with 10k PRs worth of records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "--enable-preview")
+public class StateStoreBenchmark {
+
+    private static final int PRS = 10_000;
+
+    private final JsonMapper objectMapper = JsonMapper.builder().build();
+    private Path dir;
+    private StateStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("state-store-bench");
+        try (var seed = new StateStore(dir, objectMapper)) {
+            var writes = new CompletableFuture[PRS];
+            for (int i = 0; i < PRS; i++) {
+                writes[i] = seed.put(state(i));
+            }
+            CompletableFuture.allOf(writes).join();
+        }
+        store = new StateStore(dir, objectMapper);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        FileUtil.deleteRecursively(dir);
+    }
+
+    /**
+     * A single caller waiting for every write, i.e. one fsync per update.
+     */
+    @Benchmark
+    public void updateSingleThreaded() {
+        store.put(state(ThreadLocalRandom.current().nextInt(PRS))).join();
+    }
+
+    /**
+     * Webhooks and build threads updating concurrently, their writes end up sharing fsyncs.
+     */
+    @Benchmark
+    @Threads(16)
+    public void updateContended() {
+        store.put(state(ThreadLocalRandom.current().nextInt(PRS))).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public int recover() {
+        try (var recovered = new StateStore(dir, objectMapper)) {
+            return recovered.recovered().size();
+        }
+    }
+
+    private static StoredState state(long pr) {
+        return new StoredState(pr, "Build completed successfully", false, true, 1_000_000 + pr, "work/builds/pr-" + pr, "0123456789abcdef0123456789abcdef01234567", "89abcdef0123456789abcdef0123456789abcdef", null, null, null);
+    }
+}
@@ -0,0 +1,111 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.papermc.proofreader.proofreader.github.Model.Action;
+import io.papermc.proofreader.proofreader.github.Model.AuthorAssociation;
+import io.papermc.proofreader.proofreader.github.Model.PullRequestPayload;
+import io.papermc.proofreader.proofreader.github.Model.Repository;
+import io.papermc.proofreader.proofreader.github.Model.User;
+import org.openjdk.jmh.annotations.*;
+import tools.jackson.databind.MapperFeature;
+import tools.jackson.databind.cfg.EnumFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature check plus parsing of a single delivery, old path vs. new path. The payloads in {@code webhooks/} are
+ * shaped like real deliveries for the Paper repo (same structure and roughly the same size).
+ * <p>
+ * Run with the gc profiler ({@code ./gradlew jmh}, it's enabled in the build) to get bytes allocated per delivery.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "--enable-preview")
+public class WebhookIngestBenchmark {
+
+    private static final String SECRET = "supersecretwebhooksecret";
+
+    @Param({"push", "issue_comment", "pull_request"})
+    public String event;
+
+    // configured like the application's mapper, github sends lowercase actions
+    private final JsonMapper objectMapper = JsonMapper.builder()
+            .enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+            .enable(EnumFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE)
+            .build();
+    private final WebhookParser parser = new WebhookParser(objectMapper);
+    private final WebhookSignature signatures = new WebhookSignature(SECRET);
+    private byte[] payload;
+    private String signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (var in = WebhookIngestBenchmark.class.getResourceAsStream("/webhooks/" + event + ".json")) {
+            payload = Objects.requireNonNull(in).readAllBytes();
+        }
+        var mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        signature = "sha256=" + HexFormat.of().formatHex(mac.doFinal(payload));
+    }
+
+    /**
+     * What the controller used to do: body as String, fresh Mac per request, databind into the full payload records.
+     */
+    @Benchmark
+    public Object stringBodyFullTree() throws Exception {
+        var rawPayload = new String(payload, StandardCharsets.UTF_8);
+        var hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        var computed = hmac.doFinal(rawPayload.getBytes(StandardCharsets.UTF_8));
+        var provided = HexFormat.of().parseHex(signature.replaceFirst("sha256=", ""));
+        if (!MessageDigest.isEqual(computed, provided)) {
+            throw new IOException("Invalid signature");
+        }
+        return switch (event) {
+            case "push" -> objectMapper.readValue(rawPayload, PushPayload.class);
+            case "issue_comment" -> objectMapper.readValue(rawPayload, IssueCommentPayload.class);
+            default -> objectMapper.readValue(rawPayload, PullRequestPayload.class);
+        };
+    }
+
+    @Benchmark
+    public Object rawBytesStreaming() throws Exception {
+        if (!signatures.isValid(payload, signature)) {
+            throw new IOException("Invalid signature");
+        }
+        return switch (event) {
+            case "push" -> parser.parsePush(payload, 0, payload.length);
+            case "issue_comment" -> parser.parseIssueComment(payload, 0, payload.length);
+            default -> objectMapper.readValue(payload, 0, payload.length, PullRequestPayload.class);
+        };
+    }
+
+    // what the handler used to bind push and issue_comment deliveries to, before WebhookParser
+    record IssueCommentPayload(Action action, Changes changes, Issue issue, Comment comment, Repository repository,
+                               User sender) {
+        record Issue(long id, long number, String title, User user, Model.State state,
+                     AuthorAssociation author_association, String body) {
+        }
+
+        record Comment(long id, String body, User user, AuthorAssociation author_association) {
+        }
+
+        record Changes(Body body) {
+            record Body(String from) {
+            }
+        }
+    }
+
+    record PushPayload(String ref, String before, String after, Repository repository, User sender) {
+    }
+}
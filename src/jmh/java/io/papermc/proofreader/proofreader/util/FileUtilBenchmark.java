@@ -0,0 +1,107 @@
+package io.papermc.proofreader.proofreader.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deleting a tree shaped like {@code paper-server/src/minecraft}: a java repo with a few thousand sources in deep
+ * packages, a resources repo with lots of small json files, both with a git object store next to them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "--enable-preview")
+public class FileUtilBenchmark {
+
+    private Path root;
+    private Path source;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("file-util-bench");
+        source = root.resolve("minecraft");
+        createMinecraftTree(source);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        FileUtil.deleteRecursively(root);
+    }
+
+    /**
+     * What deleteRecursively used to do: sort the whole walk, then delete one by one.
+     */
+    @Benchmark
+    public void sortedDelete() throws Exception {
+        try (var walk = Files.walk(source)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void delete() {
+        FileUtil.deleteRecursively(source);
+    }
+
+    static void createMinecraftTree(Path dir) throws Exception {
+        var random = new Random(42);
+        var hex = HexFormat.of();
+
+        // ~4.5k sources, 8k on average, in packages a few levels deep
+        var java = dir.resolve("java");
+        String[] top = {"world", "server", "network", "core", "util", "client", "data", "commands", "nbt", "gametest"};
+        for (int pkg = 0; pkg < 300; pkg++) {
+            var packageDir = java.resolve("net/minecraft").resolve(top[pkg % top.length]).resolve("level" + pkg / 30).resolve("pkg" + pkg);
+            Files.createDirectories(packageDir);
+            for (int file = 0; file < 15; file++) {
+                var content = new byte[4096 + random.nextInt(8192)];
+                random.nextBytes(content);
+                Files.write(packageDir.resolve("Class" + file + ".java"), content);
+            }
+        }
+
+        // ~10k small json files
+        var resources = dir.resolve("resources");
+        for (int folder = 0; folder < 50; folder++) {
+            var folderDir = resources.resolve("data/minecraft").resolve("folder" + folder);
+            Files.createDirectories(folderDir);
+            for (int file = 0; file < 200; file++) {
+                var content = new byte[200 + random.nextInt(600)];
+                random.nextBytes(content);
+                Files.write(folderDir.resolve("entry" + file + ".json"), content);
+            }
+        }
+
+        // loose objects fanned out over 256 directories plus a pack, per repo
+        for (Path repo : new Path[]{java, resources}) {
+            var objects = repo.resolve(".git/objects");
+            for (int fanout = 0; fanout < 256; fanout++) {
+                var fanoutDir = objects.resolve(hex.toHexDigits((byte) fanout));
+                Files.createDirectories(fanoutDir);
+                for (int object = 0; object < 8; object++) {
+                    var content = new byte[100 + random.nextInt(400)];
+                    random.nextBytes(content);
+                    Files.write(fanoutDir.resolve("object" + object), content);
+                }
+            }
+            var pack = new byte[16 * 1024 * 1024];
+            random.nextBytes(pack);
+            Files.createDirectories(objects.resolve("pack"));
+            Files.write(objects.resolve("pack/pack-1.pack"), pack);
+        }
+    }
+}
@@ -3,12 +3,19 @@ package io.papermc.proofreader.proofreader;
 import org.jspecify.annotations.Nullable;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 import org.springframework.boot.jackson.autoconfigure.JsonMapperBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.unit.DataSize;
 import tools.jackson.databind.MapperFeature;
+import tools.jackson.databind.cfg.EnumFeature;
+
+import java.time.Duration;
 
 @Configuration
+@EnableScheduling
 @EnableConfigurationProperties(ProofReaderConfig.Config.class)
 public class ProofReaderConfig {
 
@@ -21,7 +28,20 @@ public class ProofReaderConfig {
             String installationId,
             String privateKey,
             @Nullable String buildCacheUser,
-            @Nullable String buildCachePassword
+            @Nullable String buildCachePassword,
+            @DefaultValue("http://localhost:8080") String publicUrl,
+            @DefaultValue Mirror mirror,
+            @DefaultValue Builds builds,
+            @DefaultValue Workspaces workspaces,
+            @DefaultValue Rebase rebase,
+            @DefaultValue Storage storage,
+            @DefaultValue Comments comments,
+            @DefaultValue Github github,
+            @DefaultValue Webhooks webhooks,
+            @DefaultValue Gradle gradle,
+            @DefaultValue Artifacts artifacts,
+            @DefaultValue Logs logs,
+            @DefaultValue Cluster cluster
     ) {
 
         public record Repo(String owner, String name) {
@@ -33,10 +53,132 @@ public class ProofReaderConfig {
                 return owner + "%2F" + name;
             }
         }
+
+        public record Mirror(
+                @DefaultValue("work/mirror.git") String dir,
+                @DefaultValue("true") boolean enabled
+        ) {
+        }
+
+        /**
+         * @param maxParallelStages how many steps of one build may run at the same time, e.g. gradle and the rewrites
+         *                          of the source tier
+         */
+        public record Builds(
+                @DefaultValue("2") int maxConcurrent,
+                @DefaultValue("true") boolean incremental,
+                @DefaultValue("3") int maxParallelStages
+        ) {
+        }
+
+        /**
+         * @param maxSize budget for all build dirs together, the least recently used ones are deleted to stay below it
+         */
+        public record Workspaces(
+                @DefaultValue("work/builds") String dir,
+                @DefaultValue("200GB") DataSize maxSize
+        ) {
+        }
+
+        public record Rebase(
+                @DefaultValue("false") boolean onMainPush
+        ) {
+        }
+
+        /**
+         * @param historyMaxSize budget for the rewritten history, above it commits no longer reachable from the latest
+         *                       rewrites are pruned
+         * @param historyPruneAge how long unreachable history is kept before it can be pruned, longer than a build
+         *                        borrows it
+         */
+        public record Storage(
+                @DefaultValue("work/state") String stateDir,
+                @DefaultValue("work/history.git") String historyDir,
+                @DefaultValue("10GB") DataSize historyMaxSize,
+                @DefaultValue("1d") Duration historyPruneAge
+        ) {
+        }
+
+        public record Comments(
+                @DefaultValue("2s") Duration debounce
+        ) {
+        }
+
+        public record Github(
+                @DefaultValue("https://api.github.com") String apiUrl,
+                @DefaultValue("1s") Duration writeInterval,
+                @DefaultValue("100") int reserve,
+                @DefaultValue("5") int maxRetries
+        ) {
+        }
+
+        public record Gradle(
+                @DefaultValue("work/gradle-home") String userHome,
+                @DefaultValue("work/gradle-cache") String cacheDir,
+                @DefaultValue("20GB") DataSize cacheSize,
+                @DefaultValue("3h") Duration daemonIdleTimeout
+        ) {
+        }
+
+        public record Artifacts(
+                @DefaultValue("work/artifacts") String dir,
+                @DefaultValue("50GB") DataSize maxSize,
+                @DefaultValue("30d") Duration maxAge
+        ) {
+        }
+
+        public record Webhooks(
+                @DefaultValue("work/webhooks") String dir,
+                @DefaultValue("4") int consumers
+        ) {
+        }
+
+        public record Logs(
+                @DefaultValue("work/logs") String dir,
+                @DefaultValue("50MB") DataSize maxSize,
+                @DefaultValue("5") int keep
+        ) {
+        }
+
+        /**
+         * @param workerId defaults to host name and pid
+         */
+        public record Cluster(
+                @DefaultValue("standalone") Role role,
+                @DefaultValue("http://localhost:8080") String coordinatorUrl,
+                @Nullable String secret,
+                @Nullable String workerId,
+                @DefaultValue("10s") Duration heartbeatInterval,
+                @DefaultValue("1m") Duration heartbeatTimeout,
+                @DefaultValue("2s") Duration pollInterval
+        ) {
+            public enum Role {
+                /**
+                 * handles webhooks and runs the builds itself
+                 */
+                STANDALONE,
+                /**
+                 * handles webhooks, workers run the builds
+                 */
+                COORDINATOR,
+                /**
+                 * only runs builds it claims from the coordinator
+                 */
+                WORKER
+            }
+        }
+
+        /**
+         * {@link #publicUrl} without a trailing slash, for building links.
+         */
+        public String baseUrl() {
+            return publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl;
+        }
     }
 
     @Bean
     public JsonMapperBuilderCustomizer jsonCustomizer() {
-        return builder -> builder.enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS);
+        return builder -> builder.enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+                .enable(EnumFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE);
     }
 }
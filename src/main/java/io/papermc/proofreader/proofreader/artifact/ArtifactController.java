@@ -0,0 +1,146 @@
+package io.papermc.proofreader.proofreader.artifact;
+
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore.StoredArtifact;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves stored artifacts. The URL names the artifact of a build ({@code pr-123}), and the next build replaces what's
+ * behind it. The sha256 of the blob doubles as a strong ETag, so clients revalidate every time but only download again
+ * after a new build. Single range requests are answered so interrupted downloads of the bigger jars can resume, as
+ * long as {@code If-Range} still matches. Where the container supports it (tomcat's NIO connector does) the transfer
+ * is handed to {@code sendfile}, otherwise the file is streamed via {@link FileChannel#transferTo}.
+ */
+@RestController
+@RequestMapping("/artifacts")
+class ArtifactController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ArtifactStore store;
+
+    ArtifactController(ArtifactStore store) {
+        this.store = store;
+    }
+
+    @GetMapping("/{build}/{name}")
+    public void download(@PathVariable String build,
+                         @PathVariable String name,
+                         @RequestHeader(value = HttpHeaders.RANGE, required = false) @Nullable String range,
+                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) @Nullable String ifNoneMatch,
+                         @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) @Nullable String ifRange,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        var stored = store.find(build, name);
+        if (stored == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No artifact " + name + " for " + build);
+        }
+
+        var etag = "\"" + stored.artifact().sha256() + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // the next build replaces what's behind the url, caches have to ask, the etag makes that cheap
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(name).build().toString());
+        response.setContentType(name.endsWith(".jar") ? "application/java-archive" : "application/octet-stream");
+        if (etag.equals(ifNoneMatch)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        var size = stored.artifact().size();
+        long start = 0;
+        long end = size - 1;
+        // a range of an earlier build's artifact would corrupt the download, it gets the whole new one instead
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            var parsed = parseRange(range, size);
+            if (parsed == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        response.setContentLengthLong(end - start + 1);
+        if (request.getMethod().equals("HEAD")) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // the connector writes the file once we return, without it ever going through the heap
+            request.setAttribute(SENDFILE_FILENAME, stored.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        transfer(stored, start, end + 1, response);
+    }
+
+    private static void transfer(StoredArtifact stored, long start, long end, HttpServletResponse response) throws IOException {
+        try (var channel = FileChannel.open(stored.file(), StandardOpenOption.READ)) {
+            var out = Channels.newChannel(response.getOutputStream());
+            var position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+    /**
+     * @return {@code [start, end]} (inclusive) for a single satisfiable range, an empty array to send the whole file
+     * (multiple ranges, which we don't bother with, or something we don't understand) and null if it can't be satisfied
+     */
+    static long @Nullable [] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return new long[0];
+        }
+        var spec = header.substring("bytes=".length()).trim();
+        var dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // suffix range, the last n bytes
+                var suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.papermc.proofreader.proofreader.artifact;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the jars of the latest build of every PR around for download.
+ * <p>
+ * Files are stored by their sha256 in {@code blobs/}, so an artifact that comes out byte for byte the same as in an
+ * earlier build (the api jar of every PR that only touches the server, say) is stored once. {@code manifests/} has
+ * one file per build listing its artifacts. Manifests older than {@code maxAge} are dropped, and if the blobs still
+ * take up more than {@code maxSize} the oldest manifests go too, blobs nothing refers to anymore are deleted.
+ */
+@Service
+public class ArtifactStore {
+
+    private static final Pattern namePattern = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+    private static final String MAIN = "main";
+
+    private final Config config;
+    private final ObjectMapper objectMapper;
+    private final Path blobDir;
+    private final Path manifestDir;
+
+    public ArtifactStore(Config config, ObjectMapper objectMapper) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+        var dir = Path.of(config.artifacts().dir());
+        this.blobDir = dir.resolve("blobs");
+        this.manifestDir = dir.resolve("manifests");
+        try {
+            Files.createDirectories(blobDir);
+            Files.createDirectories(manifestDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open artifact store in " + dir, e);
+        }
+    }
+
+    /**
+     * Stores {@code files} as the artifacts of {@code build}, replacing whatever an earlier build left there.
+     * Holds the lock for the whole upload, so eviction can't delete blobs that are about to be referenced.
+     */
+    public synchronized Manifest store(String build, @Nullable String headSha, List<Path> files) {
+        checkName(build);
+        try {
+            var artifacts = new ArrayList<Artifact>();
+            var stored = 0L;
+            for (Path file : files) {
+                var name = file.getFileName().toString();
+                checkName(name);
+                var sha256 = hash(file);
+                var size = Files.size(file);
+                if (storeBlob(file, sha256)) {
+                    stored += size;
+                }
+                artifacts.add(new Artifact(name, sha256, size));
+            }
+
+            var manifest = new Manifest(build, headSha, Instant.now(), artifacts);
+            var tmp = manifestDir.resolve(build + ".json.tmp");
+            Files.write(tmp, objectMapper.writeValueAsBytes(manifest));
+            Files.move(tmp, manifestFile(build), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Stored " + artifacts.size() + " artifacts of " + build + ", " + stored / 1024 + "KB new, the rest was already there");
+            evict();
+            return manifest;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store artifacts of " + build, e);
+        }
+    }
+
+    public @Nullable Manifest manifest(String build) {
+        if (!namePattern.matcher(build).matches()) return null;
+        var file = manifestFile(build);
+        try {
+            return Files.exists(file) ? objectMapper.readValue(Files.readAllBytes(file), Manifest.class) : null;
+        } catch (Exception e) {
+            System.out.println("Failed to read artifact manifest " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the file to serve for artifact {@code name} of {@code build}, if there is one
+     */
+    public @Nullable StoredArtifact find(String build, String name) {
+        var manifest = manifest(build);
+        if (manifest == null) return null;
+        for (Artifact artifact : manifest.artifacts()) {
+            if (artifact.name().equals(name)) {
+                var blob = blobFile(artifact.sha256());
+                return Files.exists(blob) ? new StoredArtifact(artifact, blob) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Public download url of an artifact, for linking it in the comment.
+     */
+    public String url(String build, Artifact artifact) {
+        return config.baseUrl() + "/artifacts/" + build + "/" + artifact.name();
+    }
+
+    @Scheduled(initialDelayString = "${proofreader.artifacts.eviction-initial-delay:PT10M}", fixedDelayString = "${proofreader.artifacts.eviction-interval:PT6H}")
+    public synchronized void evict() {
+        try {
+            var manifests = new ArrayList<Manifest>();
+            try (var files = Files.list(manifestDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (!file.getFileName().toString().endsWith(".json")) continue;
+                    var manifest = manifest(file.getFileName().toString().replace(".json", ""));
+                    if (manifest != null) {
+                        manifests.add(manifest);
+                    }
+                }
+            }
+
+            // main is what every PR gets compared against, it never expires
+            var expiry = Instant.now().minus(config.artifacts().maxAge());
+            var dropped = 0;
+            for (var it = manifests.iterator(); it.hasNext(); ) {
+                var manifest = it.next();
+                if (!manifest.build().equals(MAIN) && manifest.createdAt().isBefore(expiry)) {
+                    Files.deleteIfExists(manifestFile(manifest.build()));
+                    it.remove();
+                    dropped++;
+                }
+            }
+
+            manifests.sort(Comparator.comparing(Manifest::createdAt));
+            var maxSize = config.artifacts().maxSize().toBytes();
+            while (referencedSize(manifests) > maxSize) {
+                var oldest = manifests.stream().filter(manifest -> !manifest.build().equals(MAIN)).findFirst();
+                if (oldest.isEmpty()) break;
+                Files.deleteIfExists(manifestFile(oldest.get().build()));
+                manifests.remove(oldest.get());
+                dropped++;
+            }
+
+            var referenced = new HashSet<String>();
+            manifests.forEach(manifest -> manifest.artifacts().forEach(artifact -> referenced.add(artifact.sha256())));
+            var deleted = deleteUnreferenced(referenced);
+            if (dropped > 0 || deleted > 0) {
+                System.out.println("Evicted artifacts of " + dropped + " builds, deleted " + deleted + " blobs");
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to evict artifacts: " + e.getMessage());
+        }
+    }
+
+    private static long referencedSize(List<Manifest> manifests) {
+        // shared blobs only count once
+        var seen = new HashSet<String>();
+        var size = 0L;
+        for (Manifest manifest : manifests) {
+            for (Artifact artifact : manifest.artifacts()) {
+                if (seen.add(artifact.sha256())) {
+                    size += artifact.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    private int deleteUnreferenced(Set<String> referenced) throws IOException {
+        var deleted = 0;
+        try (var prefixes = Files.list(blobDir)) {
+            for (Path prefix : (Iterable<Path>) prefixes::iterator) {
+                try (var blobs = Files.list(prefix)) {
+                    for (Path blob : (Iterable<Path>) blobs::iterator) {
+                        var name = blob.getFileName().toString();
+                        // .tmp files are uploads in progress
+                        if (!name.endsWith(".tmp") && !referenced.contains(name) && Files.deleteIfExists(blob)) {
+                            deleted++;
+                        }
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return whether the blob had to be written, false if we already had it
+     */
+    private boolean storeBlob(Path file, String sha256) throws IOException {
+        var blob = blobFile(sha256);
+        if (Files.exists(blob)) {
+            return false;
+        }
+        Files.createDirectories(blob.getParent());
+        // gradle rewrites its outputs in place, so we need our own copy rather than a hardlink.
+        // transferTo lets the kernel do the copying (copy_file_range), the bytes never pass through the java heap
+        var tmp = Files.createTempFile(blob.getParent(), sha256, ".tmp");
+        try (var in = FileChannel.open(file, StandardOpenOption.READ);
+             var out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            var size = in.size();
+            var position = 0L;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var digest = MessageDigest.getInstance("SHA-256");
+            var buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Path blobFile(String sha256) {
+        return blobDir.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private Path manifestFile(String build) {
+        return manifestDir.resolve(build + ".json");
+    }
+
+    private static void checkName(String name) {
+        if (!namePattern.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid artifact name " + name);
+        }
+    }
+
+    public record Manifest(String build, @Nullable String headSha, Instant createdAt, List<Artifact> artifacts) {
+    }
+
+    public record Artifact(String name, String sha256, long size) {
+    }
+
+    public record StoredArtifact(Artifact artifact, Path file) {
+    }
+}
@@ -0,0 +1,4 @@
+@NullMarked
+package io.papermc.proofreader.proofreader.artifact;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,155 @@
+package io.papermc.proofreader.proofreader.cluster;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config.Cluster.Role;
+import io.papermc.proofreader.proofreader.cluster.Protocol.*;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import org.jspecify.annotations.Nullable;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A worker's side of the cluster protocol. On a coordinator or a standalone instance this does nothing but answer
+ * {@link #isWorker()} with false.
+ */
+@Service
+public class ClusterClient {
+
+    static final String TOKEN_HEADER = "X-ProofReader-Cluster-Token";
+
+    private final boolean worker;
+    private final String workerId;
+    private final @Nullable RestClient restClient;
+    private final Map<Long, Long> jobsByPr = new ConcurrentHashMap<>();
+
+    public ClusterClient(Config config) {
+        var cluster = config.cluster();
+        this.worker = cluster.role() == Role.WORKER;
+        this.workerId = cluster.workerId() != null ? cluster.workerId() : defaultWorkerId();
+        if (!worker) {
+            this.restClient = null;
+            return;
+        }
+        if (cluster.secret() == null) {
+            throw new IllegalStateException("proofreader.cluster.secret is required for workers");
+        }
+        this.restClient = RestClient.builder()
+                .baseUrl(cluster.coordinatorUrl())
+                .defaultHeader(TOKEN_HEADER, cluster.secret())
+                .defaultHeader("User-Agent", "ProofReader worker " + workerId)
+                .build();
+    }
+
+    public boolean isWorker() {
+        return worker;
+    }
+
+    public String workerId() {
+        return workerId;
+    }
+
+    public @Nullable ClaimResponse claim() {
+        return client().post()
+                .uri("/cluster/claim")
+                .body(new ClaimRequest(workerId))
+                .retrieve()
+                .body(ClaimResponse.class);
+    }
+
+    /**
+     * @return the jobs to cancel
+     */
+    public List<Long> heartbeat(Collection<Long> jobs) {
+        var response = client().post()
+                .uri("/cluster/heartbeat")
+                .body(new HeartbeatRequest(workerId, List.copyOf(jobs)))
+                .retrieve()
+                .body(HeartbeatResponse.class);
+        return response != null ? response.cancel() : List.of();
+    }
+
+    /**
+     * Routes state updates of {@code prNumber} to job {@code jobId} until {@link #end}.
+     */
+    void begin(long prNumber, long jobId) {
+        jobsByPr.put(prNumber, jobId);
+    }
+
+    void end(long prNumber) {
+        jobsByPr.remove(prNumber);
+    }
+
+    /**
+     * Sends the state of a PR we're running a job for to the coordinator, which updates the comment.
+     */
+    public void report(StoredState state) {
+        var jobId = jobsByPr.get(state.prNumber());
+        if (jobId == null) return;
+        try {
+            client().post()
+                    .uri("/cluster/jobs/{id}/state?worker={worker}", jobId, workerId)
+                    .body(state)
+                    .retrieve()
+                    .toBodilessEntity();
+        } catch (Exception e) {
+            // the next update carries the same information, a build doesn't fail over a status line
+            System.out.println("Failed to report state of #" + state.prNumber() + " to the coordinator: " + e.getMessage());
+        }
+    }
+
+    public void complete(long jobId) {
+        client().post()
+                .uri("/cluster/jobs/{id}/complete?worker={worker}", jobId, workerId)
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+    /**
+     * Uploads the artifacts of a build to the coordinator, which serves them.
+     */
+    public void uploadArtifacts(String build, @Nullable String headSha, List<Path> files) {
+        var names = new ArrayList<String>();
+        for (Path file : files) {
+            var name = file.getFileName().toString();
+            client().put()
+                    .uri("/cluster/artifacts/{build}/{name}?worker={worker}", build, name, workerId)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(new FileSystemResource(file))
+                    .retrieve()
+                    .toBodilessEntity();
+            names.add(name);
+        }
+        client().post()
+                .uri("/cluster/artifacts/{build}?worker={worker}", build, workerId)
+                .body(new ArtifactsRequest(headSha, names))
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+    private RestClient client() {
+        if (restClient == null) {
+            throw new IllegalStateException("Not a worker");
+        }
+        return restClient;
+    }
+
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,151 @@
+package io.papermc.proofreader.proofreader.cluster;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config.Cluster.Role;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
+import io.papermc.proofreader.proofreader.cluster.Protocol.*;
+import io.papermc.proofreader.proofreader.service.BuildScheduler;
+import io.papermc.proofreader.proofreader.service.StateService;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * The coordinator's side of the cluster protocol. Workers claim jobs, keep them alive with heartbeats, report the
+ * state of the PR they're working on and upload the artifacts they built. Only answers on a coordinator.
+ */
+@RestController
+@RequestMapping("/cluster")
+class ClusterController {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+
+    private final BuildScheduler scheduler;
+    private final StateService states;
+    private final ArtifactStore artifacts;
+    private final Config config;
+    private final Path uploadDir;
+
+    ClusterController(BuildScheduler scheduler, StateService states, ArtifactStore artifacts, Config config) {
+        this.scheduler = scheduler;
+        this.states = states;
+        this.artifacts = artifacts;
+        this.config = config;
+        this.uploadDir = Path.of(config.artifacts().dir()).resolve("uploads");
+        if (config.cluster().role() == Role.COORDINATOR && config.cluster().secret() == null) {
+            throw new IllegalStateException("proofreader.cluster.secret is required for the coordinator");
+        }
+    }
+
+    @PostMapping("/claim")
+    public ResponseEntity<ClaimResponse> claim(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                                               @RequestBody ClaimRequest request) {
+        checkAccess(token);
+        var job = scheduler.claim(request.worker());
+        if (job == null) {
+            return ResponseEntity.noContent().build();
+        }
+        StoredState state;
+        synchronized (job.state()) {
+            state = job.state().toStored();
+        }
+        return ResponseEntity.ok(new ClaimResponse(job.id(), state, job.spec(), states.main().headSha));
+    }
+
+    @PostMapping("/heartbeat")
+    public HeartbeatResponse heartbeat(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                                       @RequestBody HeartbeatRequest request) {
+        checkAccess(token);
+        return new HeartbeatResponse(scheduler.heartbeat(request.worker(), request.jobs()));
+    }
+
+    @PostMapping("/jobs/{id}/state")
+    public void state(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                      @PathVariable long id, @RequestParam String worker, @RequestBody StoredState state) {
+        checkAccess(token);
+        if (!scheduler.holds(worker, id)) {
+            // the job was given to someone else, their word counts now
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + id + " is not held by " + worker);
+        }
+        states.updateFromWorker(state);
+    }
+
+    @PostMapping("/jobs/{id}/complete")
+    public void complete(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                         @PathVariable long id, @RequestParam String worker) {
+        checkAccess(token);
+        scheduler.complete(worker, id);
+    }
+
+    @PutMapping("/artifacts/{build}/{name}")
+    public void upload(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                       @PathVariable String build, @PathVariable String name, HttpServletRequest request) throws IOException {
+        checkAccess(token);
+        var dir = uploadDir.resolve(checkName(build));
+        Files.createDirectories(dir);
+        var tmp = Files.createTempFile(dir, checkName(name), ".tmp");
+        try (var in = request.getInputStream()) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @PostMapping("/artifacts/{build}")
+    public void storeArtifacts(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) @Nullable String token,
+                               @PathVariable String build, @RequestBody ArtifactsRequest request) {
+        checkAccess(token);
+        var dir = uploadDir.resolve(checkName(build));
+        var files = new ArrayList<Path>();
+        for (String name : request.names()) {
+            var file = dir.resolve(checkName(name));
+            if (!Files.isRegularFile(file)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Artifact " + name + " was not uploaded");
+            }
+            files.add(file);
+        }
+        artifacts.store(build, request.headSha(), files);
+        FileUtil.deleteRecursively(dir);
+    }
+
+    private void checkAccess(@Nullable String token) {
+        var cluster = config.cluster();
+        if (cluster.role() != Role.COORDINATOR) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        var secret = cluster.secret();
+        if (secret == null || token == null
+            || !MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+    }
+
+    private static String checkName(String name) {
+        if (!NAME.matcher(name).matches()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid name " + name);
+        }
+        return name;
+    }
+}
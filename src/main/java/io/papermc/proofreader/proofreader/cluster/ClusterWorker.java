@@ -0,0 +1,133 @@
+package io.papermc.proofreader.proofreader.cluster;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.cluster.Protocol.ClaimResponse;
+import io.papermc.proofreader.proofreader.service.BuildHandle;
+import io.papermc.proofreader.proofreader.service.BuildService;
+import io.papermc.proofreader.proofreader.service.StateService;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs jobs claimed from the coordinator, one thread per build slot. Each thread asks for a job, runs it and asks
+ * for the next one, when there's nothing to do it waits for {@code cluster.pollInterval}.
+ */
+@Service
+class ClusterWorker {
+
+    private static final int COMPLETE_ATTEMPTS = 5;
+
+    private final ClusterClient cluster;
+    private final StateService states;
+    private final BuildService builds;
+    private final TaskScheduler taskScheduler;
+    private final Config config;
+
+    private final Map<Long, BuildHandle> running = new ConcurrentHashMap<>();
+    private volatile boolean stopped = false;
+
+    ClusterWorker(ClusterClient cluster, StateService states, BuildService builds, TaskScheduler taskScheduler, Config config) {
+        this.cluster = cluster;
+        this.states = states;
+        this.builds = builds;
+        this.taskScheduler = taskScheduler;
+        this.config = config;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!cluster.isWorker()) return;
+        var slots = Math.max(1, config.builds().maxConcurrent());
+        System.out.println("Worker " + cluster.workerId() + " taking jobs from " + config.cluster().coordinatorUrl() + " with " + slots + " slots");
+        for (int i = 0; i < slots; i++) {
+            Thread.ofVirtual().name("worker-slot-" + i).start(this::work);
+        }
+        taskScheduler.scheduleWithFixedDelay(this::heartbeat, config.cluster().heartbeatInterval());
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        running.values().forEach(BuildHandle::cancel);
+    }
+
+    private void work() {
+        while (!stopped) {
+            ClaimResponse claim = null;
+            try {
+                claim = cluster.claim();
+            } catch (Exception e) {
+                System.out.println("Failed to claim a job from the coordinator: " + e.getMessage());
+            }
+            if (claim == null) {
+                sleep(config.cluster().pollInterval());
+                continue;
+            }
+            run(claim);
+        }
+    }
+
+    private void run(ClaimResponse claim) {
+        var state = states.updateFromCoordinator(claim.state());
+        if (claim.mainSha() != null) {
+            states.main().headSha = claim.mainSha();
+        }
+        System.out.println("Running " + claim.spec().kind() + " of " + state.branch + " (job " + claim.id() + ")");
+        var handle = new BuildHandle();
+        running.put(claim.id(), handle);
+        cluster.begin(state.prNumber, claim.id());
+        try {
+            builds.task(state, claim.spec()).accept(handle);
+        } catch (Exception e) {
+            System.out.println("Job " + claim.id() + " for " + state.branch + " failed");
+            e.printStackTrace();
+        } finally {
+            running.remove(claim.id());
+            cluster.end(state.prNumber);
+            complete(claim.id());
+        }
+    }
+
+    private void complete(long jobId) {
+        // until the coordinator hears about it, the PR can't be built again
+        for (int attempt = 1; attempt <= COMPLETE_ATTEMPTS && !stopped; attempt++) {
+            try {
+                cluster.complete(jobId);
+                return;
+            } catch (Exception e) {
+                System.out.println("Failed to complete job " + jobId + " (attempt " + attempt + "): " + e.getMessage());
+                sleep(config.cluster().pollInterval().multipliedBy(attempt));
+            }
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            for (Long id : cluster.heartbeat(List.copyOf(running.keySet()))) {
+                var handle = running.get(id);
+                if (handle != null) {
+                    System.out.println("Coordinator cancelled job " + id);
+                    handle.cancel();
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to send heartbeat to the coordinator: " + e.getMessage());
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
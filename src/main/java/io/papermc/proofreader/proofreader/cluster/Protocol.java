@@ -0,0 +1,37 @@
+package io.papermc.proofreader.proofreader.cluster;
+
+import io.papermc.proofreader.proofreader.service.BuildScheduler.JobSpec;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * What workers and the coordinator send each other, see {@link ClusterController}.
+ */
+public class Protocol {
+
+    public record ClaimRequest(String worker) {
+    }
+
+    /**
+     * @param mainSha the current main, builds compare their base against it
+     */
+    public record ClaimResponse(long id, StoredState state, JobSpec spec, @Nullable String mainSha) {
+    }
+
+    public record HeartbeatRequest(String worker, List<Long> jobs) {
+    }
+
+    /**
+     * @param cancel the jobs the worker should stop, they were superseded or given to another worker
+     */
+    public record HeartbeatResponse(List<Long> cancel) {
+    }
+
+    /**
+     * Stores the artifacts uploaded before as the artifacts of a build.
+     */
+    public record ArtifactsRequest(@Nullable String headSha, List<String> names) {
+    }
+}
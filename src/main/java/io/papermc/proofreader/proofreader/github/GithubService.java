@@ -1,40 +1,126 @@
 package io.papermc.proofreader.proofreader.github;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
 import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClient;
 
-import java.security.PEMDecoder;
-import java.security.interfaces.RSAPrivateKey;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 @Service
 public class GithubService {
 
-    private final RestClient restClient;
-    private final Config config;
+    private static final int PAGE_SIZE = 100;
 
-    @Nullable
-    private Token token = null;
+    private final RestClient restClient;
+    private final TokenManager tokens;
+    private final MeterRegistry registry;
 
-    public GithubService(Config config) {
-        this.config = config;
+    public GithubService(Config config, MeterRegistry registry, TaskScheduler taskScheduler) {
+        this.registry = registry;
+        this.tokens = new TokenManager(config, taskScheduler);
         this.restClient = RestClient.builder()
-                .baseUrl("https://api.github.com")
+                .baseUrl(config.github().apiUrl())
                 .defaultHeader("X-GitHub-Api-Version", "2022-11-28")
                 .defaultHeader("Accept", "application/vnd.github+json")
                 .defaultHeader("User-Agent", "ProofReader <github.com/PaperMC/ProofReader>")
                 .defaultUriVariables(Map.of("owner", config.sourceRepo().owner(), "repo", config.sourceRepo().name()))
-                .requestInitializer((request -> request.getHeaders().setBearerAuth(getGitHubToken())))
+                .requestInitializer((request -> request.getHeaders().setBearerAuth(tokens.getToken())))
+                .requestInterceptor(new RateLimitInterceptor(config, registry))
                 .build();
     }
 
+    public PullRequest getPullRequest(long prNumber) {
+        return timed("get_pull_request", () -> doGetPullRequest(prNumber));
+    }
+
+    /**
+     * @return the numbers of all open PRs
+     */
+    public Set<Long> getOpenPullRequests() {
+        return timed("list_pull_requests", this::doGetOpenPullRequests);
+    }
+
     public long addComment(long prNumber, String comment) {
+        return timed("add_comment", () -> doAddComment(prNumber, comment));
+    }
+
+    public void updateComment(long commentId, String comment) {
+        timed("update_comment", () -> {
+            doUpdateComment(commentId, comment);
+            return null;
+        });
+    }
+
+    public void addReaction(long commentId, String reaction) {
+        timed("add_reaction", () -> {
+            doAddReaction(commentId, reaction);
+            return null;
+        });
+    }
+
+    /**
+     * Times a whole API call as {@code proofreader.github.requests}, including any time spent waiting for the rate
+     * limit and on retries.
+     */
+    private <T> T timed(String operation, Supplier<T> call) {
+        var sample = Timer.start(registry);
+        var outcome = "error";
+        try {
+            var result = call.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("proofreader.github.requests")
+                    .description("GitHub API calls")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    private PullRequest doGetPullRequest(long prNumber) {
+        var response = restClient.get()
+                .uri("/repos/{owner}/{repo}/pulls/{pull_number}", Map.of("pull_number", prNumber))
+                .retrieve()
+                .toEntity(PullRequest.class);
+
+        if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+            return response.getBody();
+        } else {
+            throw new RuntimeException("Failed to get pull request: " + response.getStatusCode());
+        }
+    }
+
+    private Set<Long> doGetOpenPullRequests() {
+        record Response(long number) {}
+
+        var open = new HashSet<Long>();
+        for (int page = 1; ; page++) {
+            var response = restClient.get()
+                    .uri("/repos/{owner}/{repo}/pulls?state=open&per_page={per_page}&page={page}", Map.of("per_page", PAGE_SIZE, "page", page))
+                    .retrieve()
+                    .toEntity(Response[].class);
+
+            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                throw new RuntimeException("Failed to list pull requests: " + response.getStatusCode());
+            }
+            for (Response pr : response.getBody()) {
+                open.add(pr.number());
+            }
+            if (response.getBody().length < PAGE_SIZE) {
+                return open;
+            }
+        }
+    }
+
+    private long doAddComment(long prNumber, String comment) {
         record Response(long id) {}
 
         var response = restClient.post()
@@ -50,7 +136,7 @@ public class GithubService {
         }
     }
 
-    public void updateComment(long commentId, String comment) {
+    private void doUpdateComment(long commentId, String comment) {
         var response = restClient.patch()
                 .uri("/repos/{owner}/{repo}/issues/comments/{comment_id}", Map.of("comment_id", commentId))
                 .body(Map.of("body", comment))
@@ -62,7 +148,7 @@ public class GithubService {
         }
     }
 
-    public void addReaction(long commentId, String reaction) {
+    private void doAddReaction(long commentId, String reaction) {
         var response = restClient.post()
                 .uri("/repos/{owner}/{repo}/issues/comments/{comment_id}/reactions", Map.of("comment_id", commentId))
                 .body(Map.of("content", reaction))
@@ -74,32 +160,11 @@ public class GithubService {
         }
     }
 
-    @SuppressWarnings("preview")
-    private String getGitHubToken() {
-        if (this.token == null || this.token.expires_at().isBefore(Instant.now().plus(1, ChronoUnit.MINUTES))) {
-            try {
-                var privateKey = (RSAPrivateKey) PEMDecoder.of().decode(config.privateKey());
-
-                var algorithm = Algorithm.RSA256(privateKey);
-                var jwt = JWT.create()
-                        .withIssuer(config.clientId())
-                        .withIssuedAt(Instant.now().minus(60, ChronoUnit.SECONDS))
-                        .withExpiresAt(Instant.now().plus(10, ChronoUnit.MINUTES))
-                        .sign(algorithm);
-
-                this.token = RestClient.create().post()
-                        .uri("https://api.github.com/app/installations/" + config.installationId() + " /access_tokens")
-                        .header("Authorization", "Bearer " + jwt)
-                        .retrieve()
-                        .body(Token.class);
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to create GitHub JWT token", ex);
-            }
+    public record PullRequest(long number, String state, Ref head, Ref base, boolean maintainer_can_modify) {
+        public record Ref(String ref, String sha, @Nullable Repo repo) {
         }
-        assert this.token != null;
-        return this.token.token;
-    }
 
-    record Token(String token, Instant expires_at) {
+        public record Repo(String full_name, String clone_url) {
+        }
     }
 }
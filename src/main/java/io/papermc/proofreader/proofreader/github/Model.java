@@ -1,5 +1,8 @@
 package io.papermc.proofreader.proofreader.github;
 
+import com.fasterxml.jackson.annotation.JsonEnumDefaultValue;
+import org.jspecify.annotations.Nullable;
+
 import java.util.List;
 
 public class Model {
@@ -10,29 +13,27 @@ public class Model {
         }
     }
 
-    record IssueCommentPayload(Action action, Changes changes, Issue issue, Comment comment, Repository repository,
-                               User sender) {
-        record Issue(long id, long number, String title, User user, State state, AuthorAssociation author_association,
-                     String body) {
-        }
-
-        record Comment(long id, String body, User user, AuthorAssociation author_association) {
-        }
-
-        record Changes(Body body) {
-            record Body(String from) {
-            }
-        }
+    /**
+     * The parts of an {@code issue_comment} event we act on, see {@link WebhookParser}.
+     */
+    record IssueCommentEvent(Action action, long issueNumber, long commentId, String body,
+                             AuthorAssociation authorAssociation, @Nullable String previousBody, String repository) {
     }
 
     record PullRequestPayload(Action action, long number, PullRequest pull_request, Repository repository,
                               User sender) {
         record PullRequest(long id, long number, String title, User user, State state,
-                           AuthorAssociation author_association, String body) {
+                           AuthorAssociation author_association, String body, Ref head, Ref base) {
+        }
+
+        record Ref(String ref, String sha) {
         }
     }
 
-    record PushPayload(String ref, String before, String after, Repository repository, User sender) {
+    /**
+     * The parts of a {@code push} event we act on, see {@link WebhookParser}.
+     */
+    record PushEvent(String ref, String after, String repository) {
     }
 
     record User(String login, long id) {
@@ -48,7 +49,12 @@ public class Model {
         SYNCHRONIZE,
         CREATED,
         DELETED,
-        EDITED
+        EDITED,
+        /**
+         * any of the many actions we don't act on, like labeled or review_requested
+         */
+        @JsonEnumDefaultValue
+        UNKNOWN
     }
 
     enum AuthorAssociation {
@@ -0,0 +1,261 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps track of the rate limit budget of the installation and plays nice with it:
+ * <ul>
+ *     <li>GETs are sent with {@code If-None-Match}, a 304 doesn't count against the budget and is answered from cache</li>
+ *     <li>writes are spaced out by at least {@code writeInterval}, and spread over the rest of the window once the budget runs low</li>
+ *     <li>429 and rate limited 403s are retried with jittered exponential backoff, honoring {@code Retry-After}. 5xx
+ *     are only retried for idempotent methods, a POST that timed out may still have created the comment</li>
+ * </ul>
+ */
+class RateLimitInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final int MAX_CACHED = 512;
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(2);
+
+    private final Config.Github settings;
+
+    private final Object budgetLock = new Object();
+    private long remaining = -1;
+    private Instant resetAt = Instant.EPOCH;
+    private Instant nextWriteAt = Instant.EPOCH;
+
+    private final Map<String, CachedResponse> etagCache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final Timer throttleTimer;
+    private final Counter retries;
+    private final Counter notModified;
+
+    RateLimitInterceptor(Config config, MeterRegistry registry) {
+        this.settings = config.github();
+        var installation = config.installationId();
+        Gauge.builder("proofreader.github.ratelimit.remaining", this, RateLimitInterceptor::remaining)
+                .description("Requests left in the current rate limit window")
+                .tag("installation", installation)
+                .register(registry);
+        this.throttleTimer = Timer.builder("proofreader.github.throttle")
+                .description("Time requests were held back to stay within the rate limit")
+                .tag("installation", installation)
+                .register(registry);
+        this.retries = Counter.builder("proofreader.github.retries")
+                .tag("installation", installation)
+                .register(registry);
+        this.notModified = Counter.builder("proofreader.github.not_modified")
+                .description("Conditional requests answered from cache")
+                .tag("installation", installation)
+                .register(registry);
+    }
+
+    double remaining() {
+        synchronized (budgetLock) {
+            return remaining;
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        var isGet = request.getMethod() == HttpMethod.GET;
+        var cacheKey = request.getURI().toString();
+        @Nullable CachedResponse cached = null;
+        if (isGet) {
+            synchronized (etagCache) {
+                cached = etagCache.get(cacheKey);
+            }
+            if (cached != null) {
+                request.getHeaders().setIfNoneMatch(cached.etag());
+            }
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            pace(!isGet);
+
+            var response = execution.execute(request, body);
+            track(response.getHeaders());
+
+            var status = response.getStatusCode();
+            if (cached != null && status.value() == HttpStatus.NOT_MODIFIED.value()) {
+                response.close();
+                notModified.increment();
+                return cached.toResponse();
+            }
+
+            var retryDelay = retryDelay(request.getMethod(), status, response.getHeaders(), attempt);
+            if (retryDelay != null && attempt < settings.maxRetries()) {
+                response.close();
+                retries.increment();
+                System.out.println("GitHub responded " + status.value() + " to " + request.getMethod() + " " + request.getURI() + ", retrying in " + retryDelay.toMillis() + "ms");
+                sleep(retryDelay);
+                continue;
+            }
+
+            if (isGet && status.is2xxSuccessful() && response.getHeaders().getETag() != null) {
+                var buffered = CachedResponse.of(response);
+                synchronized (etagCache) {
+                    etagCache.put(cacheKey, buffered);
+                }
+                return buffered.toResponse();
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Holds the caller back until it's their turn. Writes are never sent less than {@code writeInterval} apart
+     * (github's secondary limits punish bursts of content creation), and once the budget is down to the reserve the
+     * rest of it is spread evenly until the window resets.
+     */
+    private void pace(boolean write) {
+        Duration wait;
+        synchronized (budgetLock) {
+            var now = Instant.now();
+            var slot = now;
+            if (write) {
+                slot = nextWriteAt.isAfter(now) ? nextWriteAt : now;
+                var interval = settings.writeInterval();
+                if (remaining >= 0 && remaining <= settings.reserve() && resetAt.isAfter(now)) {
+                    var spread = Duration.between(now, resetAt).dividedBy(Math.max(1, remaining));
+                    if (spread.compareTo(interval) > 0) {
+                        interval = spread;
+                    }
+                }
+                nextWriteAt = slot.plus(interval);
+            } else if (remaining == 0 && resetAt.isAfter(now)) {
+                slot = resetAt;
+            }
+            wait = Duration.between(now, slot);
+        }
+        if (wait.isPositive()) {
+            throttleTimer.record(wait);
+            sleep(wait);
+        }
+    }
+
+    private void track(HttpHeaders headers) {
+        var remainingHeader = headers.getFirst("X-RateLimit-Remaining");
+        var resetHeader = headers.getFirst("X-RateLimit-Reset");
+        if (remainingHeader == null || resetHeader == null) return;
+        try {
+            synchronized (budgetLock) {
+                remaining = Long.parseLong(remainingHeader);
+                resetAt = Instant.ofEpochSecond(Long.parseLong(resetHeader));
+            }
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    private @Nullable Duration retryDelay(HttpMethod method, HttpStatusCode status, HttpHeaders headers, int attempt) {
+        // github turned these away without processing them
+        var rateLimited = status.value() == 429
+                          || (status.value() == 403 && (headers.containsHeader("Retry-After") || "0".equals(headers.getFirst("X-RateLimit-Remaining"))));
+        if (!rateLimited && !(status.is5xxServerError() && isIdempotent(method))) {
+            return null;
+        }
+
+        var retryAfter = headers.getFirst("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (rateLimited && "0".equals(headers.getFirst("X-RateLimit-Remaining"))) {
+            synchronized (budgetLock) {
+                var untilReset = Duration.between(Instant.now(), resetAt);
+                if (untilReset.isPositive()) {
+                    return untilReset;
+                }
+            }
+        }
+
+        var backoff = BASE_BACKOFF.multipliedBy(1L << Math.min(attempt, 16));
+        if (backoff.compareTo(MAX_BACKOFF) > 0) {
+            backoff = MAX_BACKOFF;
+        }
+        // full jitter, so a bunch of callers failing together don't come back together
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(backoff.toMillis() / 2, backoff.toMillis() + 1));
+    }
+
+    private static boolean isIdempotent(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.PUT
+               || method == HttpMethod.PATCH || method == HttpMethod.DELETE;
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the GitHub rate limit", e);
+        }
+    }
+
+    private record CachedResponse(String etag, HttpStatusCode status, HttpHeaders headers, byte[] body) {
+
+        static CachedResponse of(ClientHttpResponse response) throws IOException {
+            try (response) {
+                var headers = HttpHeaders.copyOf(response.getHeaders());
+                return new CachedResponse(Objects.requireNonNull(headers.getETag()), response.getStatusCode(), headers, response.getBody().readAllBytes());
+            }
+        }
+
+        ClientHttpResponse toResponse() {
+            return new ClientHttpResponse() {
+                @Override
+                public HttpStatusCode getStatusCode() {
+                    return status;
+                }
+
+                @Override
+                public String getStatusText() {
+                    return "";
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return headers;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(body);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.papermc.proofreader.proofreader.github;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.client.RestClient;
+
+import java.security.PEMDecoder;
+import java.security.interfaces.RSAPrivateKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Hands out installation tokens without making request threads mint them.
+ * <p>
+ * The private key is parsed once, tokens are refreshed in the background well before they expire and if a caller
+ * does end up needing a fresh token, concurrent callers all wait on the same mint instead of each calling
+ * {@code /access_tokens} themselves.
+ */
+class TokenManager {
+
+    /**
+     * how long before expiry the background refresh kicks in
+     */
+    private static final Duration REFRESH_AHEAD = Duration.ofMinutes(5);
+    /**
+     * a token closer to expiry than this is not handed out anymore
+     */
+    private static final Duration MIN_VALIDITY = Duration.ofMinutes(1);
+
+    private final Config config;
+    private final TaskScheduler taskScheduler;
+    private final RestClient restClient;
+
+    private volatile @Nullable Algorithm algorithm;
+    private volatile @Nullable Token token;
+    private @Nullable CompletableFuture<Token> inflight;
+
+    TokenManager(Config config, TaskScheduler taskScheduler) {
+        this.config = config;
+        this.taskScheduler = taskScheduler;
+        this.restClient = RestClient.create();
+    }
+
+    String getToken() {
+        var current = token;
+        if (current != null && current.expires_at().isAfter(Instant.now().plus(MIN_VALIDITY))) {
+            return current.token();
+        }
+        try {
+            return refresh(current).join().token();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Failed to create GitHub JWT token", e.getCause());
+        }
+    }
+
+    /**
+     * @param stale the token the caller found too close to expiry, if another caller replaced it since that one is
+     *              used instead of minting yet another
+     */
+    private CompletableFuture<Token> refresh(@Nullable Token stale) {
+        CompletableFuture<Token> future;
+        boolean owner = false;
+        synchronized (this) {
+            var current = token;
+            if (inflight == null && current != null && current != stale && current.expires_at().isAfter(Instant.now().plus(MIN_VALIDITY))) {
+                return CompletableFuture.completedFuture(current);
+            }
+            if (inflight == null) {
+                inflight = new CompletableFuture<>();
+                owner = true;
+            }
+            future = inflight;
+        }
+        if (!owner) {
+            return future;
+        }
+
+        try {
+            var minted = mint();
+            token = minted;
+            future.complete(minted);
+            scheduleRefresh(minted);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                inflight = null;
+            }
+        }
+        return future;
+    }
+
+    private void scheduleRefresh(Token minted) {
+        var at = minted.expires_at().minus(REFRESH_AHEAD);
+        taskScheduler.schedule(() -> {
+            try {
+                refresh(minted).join();
+            } catch (CompletionException e) {
+                // the next caller will try again on its own
+                System.out.println("Background token refresh failed: " + e.getCause().getMessage());
+            }
+        }, at.isAfter(Instant.now()) ? at : Instant.now());
+    }
+
+    private Token mint() {
+        var jwt = JWT.create()
+                .withIssuer(config.clientId())
+                .withIssuedAt(Instant.now().minus(60, ChronoUnit.SECONDS))
+                .withExpiresAt(Instant.now().plus(10, ChronoUnit.MINUTES))
+                .sign(algorithm());
+
+        var minted = restClient.post()
+                .uri(config.github().apiUrl() + "/app/installations/" + config.installationId() + "/access_tokens")
+                .header("Authorization", "Bearer " + jwt)
+                .retrieve()
+                .body(Token.class);
+        if (minted == null) {
+            throw new RuntimeException("GitHub returned no installation token");
+        }
+        return minted;
+    }
+
+    @SuppressWarnings("preview")
+    private Algorithm algorithm() {
+        var current = algorithm;
+        if (current == null) {
+            synchronized (this) {
+                current = algorithm;
+                if (current == null) {
+                    var privateKey = (RSAPrivateKey) PEMDecoder.of().decode(config.privateKey());
+                    current = algorithm = Algorithm.RSA256(privateKey);
+                }
+            }
+        }
+        return current;
+    }
+
+    record Token(String token, Instant expires_at) {
+    }
+}
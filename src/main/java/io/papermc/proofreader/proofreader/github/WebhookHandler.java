@@ -0,0 +1,160 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.papermc.proofreader.proofreader.github.Model.*;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Priority;
+import io.papermc.proofreader.proofreader.service.BuildService;
+import io.papermc.proofreader.proofreader.service.CleanupService;
+import io.papermc.proofreader.proofreader.service.CommentService;
+import io.papermc.proofreader.proofreader.service.MirrorService;
+import io.papermc.proofreader.proofreader.service.StateService;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.EnumSet;
+
+import static io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+
+/**
+ * Acts on webhook deliveries once they have been verified and queued by {@link GithubWebhookController}.
+ */
+@Service
+class WebhookHandler {
+
+    private final CommentService comments;
+    private final BuildService builds;
+    private final StateService states;
+    private final MirrorService mirror;
+    private final CleanupService cleanup;
+    private final GithubService github;
+    private final Config config;
+    private final ObjectMapper objectMapper;
+    private final WebhookParser parser;
+
+    WebhookHandler(CommentService comments, BuildService builds, StateService states, MirrorService mirror, CleanupService cleanup, GithubService github, Config config, ObjectMapper objectMapper) {
+        this.comments = comments;
+        this.builds = builds;
+        this.states = states;
+        this.mirror = mirror;
+        this.cleanup = cleanup;
+        this.github = github;
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.parser = new WebhookParser(objectMapper);
+    }
+
+    void handle(String event, byte[] content, int offset, int length) {
+        switch (event) {
+            case "pull_request" -> handlePullRequest(objectMapper.readValue(content, offset, length, PullRequestPayload.class));
+            case "issue_comment" -> handleIssueComment(parser.parseIssueComment(content, offset, length));
+            case "push" -> handlePushEvent(parser.parsePush(content, offset, length));
+            default -> {
+            }
+        }
+    }
+
+    private void handlePullRequest(PullRequestPayload payload) {
+        checkRepo(payload.repository().full_name());
+
+        if (payload.action() == Action.CLOSED) {
+            cleanup.closed(payload.number());
+            return;
+        }
+        if (payload.action() == Action.REOPENED) {
+            // its state was archived, it's built like a new PR
+            cleanup.reopened(payload.number());
+        } else if (payload.action() != Action.OPENED && payload.action() != Action.SYNCHRONIZE) {
+            return;
+        }
+
+        var state = states.getState(payload.number());
+        if (payload.action() == Action.SYNCHRONIZE && payload.pull_request().head().sha().equals(state.headSha)) {
+            // a redelivery, or our own push after a rebase whose build is already running
+            return;
+        }
+        state.headSha = payload.pull_request().head().sha();
+        state.firstTimer = payload.pull_request().author_association() == AuthorAssociation.FIRST_TIMER;
+        if (state.firstTimer && !state.approved) {
+            states.updateState(state);
+            return;
+        }
+
+        builds.triggerBuild(state);
+        states.updateState(state);
+    }
+
+    private void handleIssueComment(IssueCommentEvent payload) {
+        checkRepo(payload.repository());
+
+        var state = states.getState(payload.issueNumber());
+        if (payload.action() == Action.CREATED && hasPerms(payload.authorAssociation())) {
+            if (payload.body().trim().equalsIgnoreCase("/force-update")) {
+                builds.triggerBuild(state, Priority.HIGH);
+                acknowledge(payload.commentId());
+            } else if (payload.body().trim().equalsIgnoreCase("/force-rebuild")) {
+                builds.triggerBuild(state, Priority.HIGH, false);
+                acknowledge(payload.commentId());
+            } else if (payload.body().trim().equalsIgnoreCase("/rebase")) {
+                builds.triggerRebase(state);
+                acknowledge(payload.commentId());
+            }
+        } else if (payload.action() == Action.EDITED && payload.commentId() == state.commentId && payload.previousBody() != null) {
+            var checkedBoxes = comments.newCheckedBoxes(payload.previousBody(), payload.body());
+            for (String check : checkedBoxes) {
+                if (check.contains("rebase")) {
+                    builds.triggerRebase(state);
+                } else if (check.contains("force update")) {
+                    builds.triggerBuild(state, Priority.HIGH);
+                } else if (check.contains("force rebuild")) {
+                    builds.triggerBuild(state, Priority.HIGH, false);
+                } else if (check.contains("approve")) {
+                    state.approved = true;
+                    builds.triggerBuild(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reacts to a command once it's queued. A failure here mustn't fail the delivery, a retry would queue the command
+     * again.
+     */
+    private void acknowledge(long commentId) {
+        try {
+            github.addReaction(commentId, "+1");
+        } catch (Exception e) {
+            System.out.println("Failed to react to comment " + commentId + ": " + e.getMessage());
+        }
+    }
+
+    private void handlePushEvent(PushEvent payload) {
+        checkRepo(payload.repository());
+
+        mirror.refreshAsync();
+        if (payload.ref().equals("refs/heads/main")) {
+            var state = states.main();
+            state.headSha = payload.after();
+            builds.triggerBuild(state);
+            if (config.rebase().onMainPush()) {
+                // rebased PRs are built on top of the new main anyway
+                builds.triggerRebases();
+            } else {
+                builds.triggerStaleRebuilds(payload.after());
+            }
+        }
+    }
+
+    private final EnumSet<AuthorAssociation> permittedAssociations = EnumSet.of(
+            AuthorAssociation.COLLABORATOR,
+            AuthorAssociation.MEMBER,
+            AuthorAssociation.OWNER
+    );
+    private boolean hasPerms(AuthorAssociation authorAssociation) {
+        return permittedAssociations.contains(authorAssociation);
+    }
+
+    private void checkRepo(String repo) {
+        if (!repo.equals(config.sourceRepo().withSlash())) {
+            throw new IllegalArgumentException("Received webhook for invalid repository: " + repo + " (expected " + config.sourceRepo().withSlash() + ")" );
+        }
+    }
+}
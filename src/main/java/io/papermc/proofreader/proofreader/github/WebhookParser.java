@@ -0,0 +1,147 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.papermc.proofreader.proofreader.github.Model.Action;
+import io.papermc.proofreader.proofreader.github.Model.AuthorAssociation;
+import io.papermc.proofreader.proofreader.github.Model.IssueCommentEvent;
+import io.papermc.proofreader.proofreader.github.Model.PushEvent;
+import org.jspecify.annotations.Nullable;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+/**
+ * Streaming parsers for events where we only care about a handful of fields. Everything else in the payload is
+ * skipped over token by token, without materializing records or strings for it.
+ */
+class WebhookParser {
+
+    private final ObjectMapper objectMapper;
+
+    WebhookParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    PushEvent parsePush(byte[] content, int offset, int length) {
+        var event = new Object() {
+            @Nullable String ref;
+            @Nullable String after;
+            @Nullable String repository;
+        };
+        try (var parser = objectMapper.createParser(content, offset, length)) {
+            parser.nextToken();
+            forEachProperty(parser, (name, p) -> {
+                switch (name) {
+                    case "ref" -> event.ref = p.getValueAsString();
+                    case "after" -> event.after = p.getValueAsString();
+                    case "repository" -> event.repository = readString(p, "full_name");
+                    default -> p.skipChildren();
+                }
+            });
+        }
+        return new PushEvent(require(event.ref, "ref"), require(event.after, "after"), require(event.repository, "repository.full_name"));
+    }
+
+    IssueCommentEvent parseIssueComment(byte[] content, int offset, int length) {
+        var event = new Object() {
+            @Nullable String action;
+            long issueNumber = -1;
+            long commentId = -1;
+            @Nullable String body;
+            @Nullable String authorAssociation;
+            @Nullable String previousBody;
+            @Nullable String repository;
+        };
+        try (var parser = objectMapper.createParser(content, offset, length)) {
+            parser.nextToken();
+            forEachProperty(parser, (name, p) -> {
+                switch (name) {
+                    case "action" -> event.action = p.getValueAsString();
+                    case "issue" -> forEachProperty(p, (issueField, ip) -> {
+                        if (issueField.equals("number")) {
+                            event.issueNumber = ip.getLongValue();
+                        } else {
+                            ip.skipChildren();
+                        }
+                    });
+                    case "comment" -> forEachProperty(p, (commentField, cp) -> {
+                        switch (commentField) {
+                            case "id" -> event.commentId = cp.getLongValue();
+                            case "body" -> event.body = cp.getValueAsString();
+                            case "author_association" -> event.authorAssociation = cp.getValueAsString();
+                            default -> cp.skipChildren();
+                        }
+                    });
+                    case "changes" -> forEachProperty(p, (changesField, chp) -> {
+                        if (changesField.equals("body")) {
+                            event.previousBody = readString(chp, "from");
+                        } else {
+                            chp.skipChildren();
+                        }
+                    });
+                    case "repository" -> event.repository = readString(p, "full_name");
+                    default -> p.skipChildren();
+                }
+            });
+        }
+        return new IssueCommentEvent(
+                action(require(event.action, "action")),
+                event.issueNumber,
+                event.commentId,
+                event.body != null ? event.body : "",
+                AuthorAssociation.valueOf(require(event.authorAssociation, "comment.author_association").toUpperCase(Locale.ROOT)),
+                event.previousBody,
+                require(event.repository, "repository.full_name")
+        );
+    }
+
+    /**
+     * Calls {@code handler} for every property of the object the parser is currently at, with the parser positioned
+     * on the property's value. The handler has to consume the value, i.e. skip it if it's a container it doesn't care about.
+     */
+    private static void forEachProperty(JsonParser parser, BiConsumer<String, JsonParser> handler) {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            var name = parser.currentName();
+            parser.nextToken();
+            handler.accept(name, parser);
+        }
+    }
+
+    private static @Nullable String readString(JsonParser parser, String field) {
+        var holder = new Object() {
+            @Nullable String value;
+        };
+        forEachProperty(parser, (name, p) -> {
+            if (name.equals(field)) {
+                holder.value = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+        });
+        return holder.value;
+    }
+
+    /**
+     * Like the mapper does for other events, an action we don't know is {@link Action#UNKNOWN} rather than an error.
+     */
+    private static Action action(String value) {
+        try {
+            return Action.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Action.UNKNOWN;
+        }
+    }
+
+    private static String require(@Nullable String value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("Webhook payload is missing " + field);
+        }
+        return value;
+    }
+}
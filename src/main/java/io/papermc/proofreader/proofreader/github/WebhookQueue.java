@@ -0,0 +1,270 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Durable hand-off between the webhook endpoint and the event handlers.
+ * <p>
+ * Every delivery is written to {@code pending/<delivery id>} and fsynced before we ack it, then a pool of consumers
+ * works through them. Handled deliveries are deleted and their id appended to {@code processed.log}, so redeliveries
+ * of the same id are dropped. Anything still pending on startup (we crashed or got stopped mid-way) is replayed.
+ * <p>
+ * Deliveries that fail on something transient (GitHub errors, an expired token, I/O) are retried with backoff. Only
+ * ones that can never succeed, like a payload we can't parse, are moved to {@code failed/} and count as processed.
+ */
+@Service
+class WebhookQueue {
+
+    private static final Pattern deliveryIdPattern = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static final int MAX_REMEMBERED = 10_000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(10);
+
+    private final WebhookHandler handler;
+    private final Path pendingDir;
+    private final Path failedDir;
+    private final Path processedLog;
+    private final ExecutorService consumers;
+    private final TaskScheduler taskScheduler;
+    private final MeterRegistry registry;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final LinkedHashSet<String> processed = new LinkedHashSet<>();
+
+    WebhookQueue(WebhookHandler handler, Config config, TaskScheduler taskScheduler, MeterRegistry registry) {
+        this.handler = handler;
+        this.taskScheduler = taskScheduler;
+        this.registry = registry;
+        var dir = Path.of(config.webhooks().dir());
+        this.pendingDir = dir.resolve("pending");
+        this.failedDir = dir.resolve("failed");
+        this.processedLog = dir.resolve("processed.log");
+        // handling a delivery is mostly waiting for GitHub, the pool only bounds how many we handle at once
+        this.consumers = Executors.newFixedThreadPool(Math.max(1, config.webhooks().consumers()), Thread.ofVirtual().name("webhook-consumer-", 1).factory());
+
+        try {
+            Files.createDirectories(pendingDir);
+            Files.createDirectories(failedDir);
+            if (Files.exists(processedLog)) {
+                try (var lines = Files.lines(processedLog)) {
+                    lines.forEach(this::remember);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open webhook queue in " + dir, e);
+        }
+
+        Gauge.builder("proofreader.webhooks.pending", inFlight, Set::size)
+                .description("Deliveries persisted but not handled yet")
+                .register(registry);
+    }
+
+    /**
+     * Persists the delivery and queues it for processing.
+     *
+     * @return false if this delivery was already seen
+     */
+    boolean enqueue(String deliveryId, String event, byte[] payload) {
+        if (!deliveryIdPattern.matcher(deliveryId).matches()) {
+            deliveryId = UUID.randomUUID().toString();
+        }
+        synchronized (processed) {
+            if (processed.contains(deliveryId)) {
+                System.out.println("Dropping redelivery " + deliveryId + " of " + event);
+                registry.counter("proofreader.webhooks.redeliveries", "event", event).increment();
+                return false;
+            }
+        }
+        if (!inFlight.add(deliveryId)) {
+            return false;
+        }
+
+        var file = pendingDir.resolve(deliveryId);
+        try {
+            var tmp = pendingDir.resolve(deliveryId + ".tmp");
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var buffers = new ByteBuffer[]{ByteBuffer.wrap((event + "\n").getBytes(StandardCharsets.US_ASCII)), ByteBuffer.wrap(payload)};
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            inFlight.remove(deliveryId);
+            throw new RuntimeException("Failed to persist webhook delivery " + deliveryId, e);
+        }
+
+        var id = deliveryId;
+        consumers.execute(() -> process(id, file, 1));
+        return true;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void replay() {
+        try (var files = Files.list(pendingDir)) {
+            var pending = files
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .sorted(Comparator.comparing(WebhookQueue::lastModified))
+                    .toList();
+            if (!pending.isEmpty()) {
+                System.out.println("Replaying " + pending.size() + " unprocessed webhook deliveries");
+            }
+            for (Path file : pending) {
+                var id = file.getFileName().toString();
+                if (inFlight.add(id)) {
+                    consumers.execute(() -> process(id, file, 1));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replay webhook deliveries", e);
+        }
+    }
+
+    private void process(String deliveryId, Path file, int attempt) {
+        var retrying = false;
+        try {
+            var content = Files.readAllBytes(file);
+            var newline = 0;
+            while (newline < content.length && content[newline] != '\n') {
+                newline++;
+            }
+            if (newline == content.length) {
+                // no event line, torn by a crash or not ours
+                System.out.println("Webhook delivery " + deliveryId + " is malformed, moving it to " + failedDir);
+                Files.move(file, failedDir.resolve(deliveryId), StandardCopyOption.REPLACE_EXISTING);
+                markProcessed(deliveryId);
+                return;
+            }
+            var event = new String(content, 0, newline, StandardCharsets.US_ASCII);
+            if (attempt == 1) {
+                // how long the delivery sat in the queue
+                registry.timer("proofreader.webhooks.lag", "event", event).record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - lastModified(file))));
+            }
+            var sample = Timer.start(registry);
+            var outcome = "failure";
+            try {
+                handler.handle(event, content, newline + 1, content.length - newline - 1);
+                Files.deleteIfExists(file);
+                outcome = "success";
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    if (attempt < MAX_ATTEMPTS) {
+                        var delay = RETRY_DELAY.multipliedBy(1L << (attempt - 1));
+                        System.out.println("Failed to handle " + event + " delivery " + deliveryId + " (attempt " + attempt + "), retrying in " + delay.toSeconds() + "s: " + e.getMessage());
+                        outcome = "retry";
+                        retrying = true;
+                        taskScheduler.schedule(() -> consumers.execute(() -> process(deliveryId, file, attempt + 1)), Instant.now().plus(delay));
+                        return;
+                    }
+                    // left in pending/ and not marked processed, so it's replayed on the next start and a redelivery
+                    // from github isn't dropped
+                    System.out.println("Giving up on " + event + " delivery " + deliveryId + " after " + attempt + " attempts for now: " + e.getMessage());
+                    return;
+                }
+                // retrying won't make the payload any better, keep it around for a human
+                System.out.println("Failed to handle " + event + " delivery " + deliveryId + ": " + e.getMessage());
+                e.printStackTrace();
+                Files.move(file, failedDir.resolve(deliveryId), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                sample.stop(Timer.builder("proofreader.webhooks.processing")
+                        .description("Time spent handling a delivery")
+                        .tag("event", event)
+                        .tag("outcome", outcome)
+                        .register(registry));
+            }
+            markProcessed(deliveryId);
+        } catch (IOException e) {
+            System.out.println("Failed to process webhook delivery " + deliveryId + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // the scheduler or the consumers are shutting down, it's replayed on the next start
+            System.out.println("Failed to retry webhook delivery " + deliveryId + ": " + e.getMessage());
+            retrying = false;
+        } finally {
+            if (!retrying) {
+                inFlight.remove(deliveryId);
+            }
+        }
+    }
+
+    /**
+     * @return whether handling the delivery again might work, GitHub or the network having a moment. A payload we
+     * can't parse or that isn't meant for us won't get any better
+     */
+    private static boolean isTransient(Exception e) {
+        return !(e instanceof IllegalArgumentException || e instanceof JacksonException);
+    }
+
+    private void markProcessed(String deliveryId) throws IOException {
+        synchronized (processed) {
+            processed.add(deliveryId);
+            Files.writeString(processedLog, deliveryId + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (processed.size() > MAX_REMEMBERED) {
+                trimProcessed();
+                var tmp = processedLog.resolveSibling("processed.log.tmp");
+                Files.write(tmp, processed);
+                Files.move(tmp, processedLog, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void remember(String deliveryId) {
+        processed.add(deliveryId);
+        if (processed.size() > MAX_REMEMBERED) {
+            trimProcessed();
+        }
+    }
+
+    private void trimProcessed() {
+        // redeliveries happen within hours, not weeks, so the oldest ids can go
+        var it = processed.iterator();
+        while (processed.size() > MAX_REMEMBERED / 2) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @PreDestroy
+    void close() throws InterruptedException {
+        // whatever doesn't finish in time stays in pending/ and is replayed on the next start
+        consumers.shutdown();
+        consumers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
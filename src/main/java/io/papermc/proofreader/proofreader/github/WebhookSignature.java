@@ -0,0 +1,60 @@
+package io.papermc.proofreader.proofreader.github;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Checks {@code X-Hub-Signature-256} against the raw request body.
+ * <p>
+ * A {@link Mac} initialized with the secret is kept as a prototype and {@link Mac#clone() cloned} for every request.
+ * That skips the provider lookup and the key setup, and unlike a thread local it still pays off when every request
+ * runs on a fresh virtual thread.
+ */
+class WebhookSignature {
+
+    private static final String PREFIX = "sha256=";
+    private static final int DIGEST_LENGTH = 32;
+
+    private final Mac prototype;
+
+    WebhookSignature(String secret) {
+        // fails on startup rather than on the first delivery
+        try {
+            this.prototype = Mac.getInstance("HmacSHA256");
+            prototype.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            // the JDK's HmacSHA256 can be cloned, a provider whose can't would fail every request
+            prototype.clone();
+        } catch (GeneralSecurityException | CloneNotSupportedException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    boolean isValid(byte[] payload, String signature) {
+        var hexStart = signature.startsWith(PREFIX) ? PREFIX.length() : 0;
+        if (signature.length() - hexStart != DIGEST_LENGTH * 2) {
+            return false;
+        }
+        var provided = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            var hi = Character.digit(signature.charAt(hexStart + i * 2), 16);
+            var lo = Character.digit(signature.charAt(hexStart + i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return false;
+            }
+            provided[i] = (byte) ((hi << 4) | lo);
+        }
+
+        Mac mac;
+        try {
+            // the prototype is never updated, so cloning it concurrently is safe
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        mac.update(payload);
+        return MessageDigest.isEqual(mac.doFinal(), provided);
+    }
+}
@@ -0,0 +1,172 @@
+package io.papermc.proofreader.proofreader.logs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The output of all processes of one build.
+ * <p>
+ * Every process gets a pump thread that drains its output as fast as it comes, so a child never blocks on a full
+ * pipe. Output goes straight to the file until it reaches {@code maxSize}, after that it's only counted. The last
+ * {@link #TAIL_SIZE} bytes are always kept in memory, they end up at the end of a truncated log (that's where the
+ * failure is) and are what {@link #excerpt()} looks at.
+ */
+public class BuildLog implements AutoCloseable {
+
+    static final int TAIL_SIZE = 64 * 1024;
+    private static final int MAX_EXCERPT_LINES = 20;
+    private static final int MAX_EXCERPT_CHARS = 1500;
+
+    private final String build;
+    private final Path file;
+    private final long maxSize;
+    private final FileChannel channel;
+    private final Runnable onClose;
+
+    private final byte[] tail = new byte[TAIL_SIZE];
+    private long total;
+    private long written;
+    private volatile boolean closed;
+
+    BuildLog(String build, Path file, long maxSize, Runnable onClose) throws IOException {
+        this.build = build;
+        this.file = file;
+        this.maxSize = maxSize;
+        this.onClose = onClose;
+        this.channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING);
+    }
+
+    public String build() {
+        return build;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Starts draining {@code output} into the log, join the returned thread once the process has exited.
+     */
+    public Thread capture(String stage, InputStream output) {
+        note(stage);
+        // not a virtual thread, a read from a process pipe holds on to its carrier thread for as long as it blocks
+        return Thread.ofPlatform().name("build-log-" + build).daemon().start(() -> {
+            var buffer = new byte[8192];
+            try (output) {
+                int read;
+                while ((read = output.read(buffer)) != -1) {
+                    write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                // the process is gone, nothing more to read
+            }
+        });
+    }
+
+    /**
+     * Adds a line of our own to the log.
+     */
+    public void note(String message) {
+        var line = ("> " + message + "\n").getBytes(StandardCharsets.UTF_8);
+        write(line, 0, line.length);
+    }
+
+    synchronized void write(byte[] bytes, int offset, int length) {
+        // the tail sees everything, the file only what fits
+        for (int i = 0; i < length; ) {
+            var position = (int) (total % TAIL_SIZE);
+            var chunk = Math.min(length - i, TAIL_SIZE - position);
+            System.arraycopy(bytes, offset + i, tail, position, chunk);
+            total += chunk;
+            i += chunk;
+        }
+        if (closed || written >= maxSize) return;
+        var allowed = (int) Math.min(length, maxSize - written);
+        try {
+            var buffer = ByteBuffer.wrap(bytes, offset, allowed);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            written += allowed;
+        } catch (IOException e) {
+            // losing log output must not fail the build
+            written = maxSize;
+        }
+    }
+
+    /**
+     * A few lines explaining the failure: gradle's "What went wrong" section if there is one, otherwise the last lines
+     * of output.
+     */
+    public synchronized String excerpt() {
+        var lines = List.of(new String(tailBytes(Math.min(total, TAIL_SIZE)), StandardCharsets.UTF_8).split("\r?\n"));
+        var from = -1;
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            if (lines.get(i).startsWith("* What went wrong:")) {
+                from = i + 1;
+                break;
+            }
+        }
+        List<String> excerpt;
+        if (from >= 0) {
+            var to = from;
+            while (to < lines.size() && !lines.get(to).startsWith("* Try:") && to - from < MAX_EXCERPT_LINES) {
+                to++;
+            }
+            excerpt = lines.subList(from, to);
+        } else {
+            excerpt = lines.subList(Math.max(0, lines.size() - MAX_EXCERPT_LINES), lines.size());
+        }
+        var result = String.join("\n", excerpt).strip();
+        return result.length() > MAX_EXCERPT_CHARS ? "..." + result.substring(result.length() - MAX_EXCERPT_CHARS) : result;
+    }
+
+    private byte[] tailBytes(long count) {
+        var result = new byte[(int) count];
+        var start = total - count;
+        for (int i = 0; i < count; i++) {
+            result[i] = tail[(int) ((start + i) % TAIL_SIZE)];
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            try {
+                var dropped = total - written;
+                if (dropped > 0) {
+                    var kept = Math.min(dropped, TAIL_SIZE);
+                    var marker = ("\n[... " + (dropped - kept) + " bytes omitted ...]\n").getBytes(StandardCharsets.UTF_8);
+                    channel.write(ByteBuffer.wrap(marker));
+                    var end = ByteBuffer.wrap(tailBytes(kept));
+                    while (end.hasRemaining()) {
+                        channel.write(end);
+                    }
+                }
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close build log " + file + ": " + e.getMessage());
+            }
+            closed = true;
+        }
+        onClose.run();
+    }
+
+    @Override
+    public String toString() {
+        return "BuildLog{" + build + ", " + file + ", " + total + " bytes" + (closed ? ", closed" : "") + "}";
+    }
+}
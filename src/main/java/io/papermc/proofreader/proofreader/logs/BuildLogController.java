@@ -0,0 +1,104 @@
+package io.papermc.proofreader.proofreader.logs;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves the latest log of a build. While the build is running the file is tailed, new output is sent as it's
+ * written until the build is done, {@code curl -N} shows it live.
+ */
+@RestController
+@RequestMapping("/logs")
+class BuildLogController {
+
+    private static final MediaType TEXT = new MediaType("text", "plain", StandardCharsets.UTF_8);
+    private static final long POLL_INTERVAL = 500;
+
+    private final BuildLogService logs;
+
+    BuildLogController(BuildLogService logs) {
+        this.logs = logs;
+    }
+
+    @GetMapping("/{build}")
+    public ResponseEntity<StreamingResponseBody> log(@PathVariable String build,
+                                                     @RequestParam(defaultValue = "0") long offset,
+                                                     @RequestParam(defaultValue = "true") boolean follow) {
+        var live = logs.live(build);
+        if (live != null) {
+            return ResponseEntity.ok().contentType(TEXT).body(out -> {
+                try {
+                    tail(live, offset, follow, out);
+                } catch (NoSuchFileException e) {
+                    // finished and compressed in the meantime
+                    send(live.file().resolveSibling(live.file().getFileName() + ".gz"), offset, out);
+                }
+            });
+        }
+        var file = logs.latest(build);
+        if (file == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No log for " + build);
+        }
+        return ResponseEntity.ok().contentType(TEXT).body(out -> send(file, offset, out));
+    }
+
+    private static void send(Path file, long offset, OutputStream out) throws IOException {
+        try (var in = open(file)) {
+            in.skipNBytes(Math.max(0, offset));
+            in.transferTo(out);
+        } catch (EOFException e) {
+            // offset past the end, nothing to send
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        var in = Files.newInputStream(file);
+        return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+
+    private static void tail(BuildLog log, long offset, boolean follow, OutputStream out) throws IOException {
+        // the channel stays readable after the log is compressed and the file deleted
+        try (var channel = FileChannel.open(log.file(), StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(64 * 1024);
+            var position = Math.max(0, offset);
+            while (true) {
+                // check before reading, so the last read sees everything that was written
+                var done = log.isClosed() || !follow;
+                int read;
+                while ((read = channel.read(buffer.clear(), position)) > 0) {
+                    out.write(buffer.array(), 0, read);
+                    position += read;
+                }
+                out.flush();
+                if (done) return;
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.papermc.proofreader.proofreader.logs;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.jspecify.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the logs of the last {@code logs.keep} builds of every PR, in {@code <dir>/<build>/<started millis>.log.gz}.
+ * A log is written uncompressed while the build runs, so it can be tailed, and gzipped once it's done.
+ */
+@Service
+public class BuildLogService {
+
+    private static final Pattern namePattern = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+    private static final Pattern logPattern = Pattern.compile("(\\d+)\\.log(\\.gz)?");
+
+    private final Config config;
+    private final Path dir;
+    private final Map<String, BuildLog> live = new ConcurrentHashMap<>();
+
+    public BuildLogService(Config config) {
+        this.config = config;
+        this.dir = Path.of(config.logs().dir());
+    }
+
+    public BuildLog open(String build) {
+        if (!namePattern.matcher(build).matches()) {
+            throw new IllegalArgumentException("Invalid build name " + build);
+        }
+        try {
+            var buildDir = dir.resolve(build);
+            Files.createDirectories(buildDir);
+            var file = buildDir.resolve(System.currentTimeMillis() + ".log");
+            var log = new BuildLog(build, file, config.logs().maxSize().toBytes(), () -> finish(build, file));
+            live.put(build, log);
+            return log;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log of " + build, e);
+        }
+    }
+
+    /**
+     * @return the log of the build of {@code build} that is running right now, if there is one
+     */
+    public @Nullable BuildLog live(String build) {
+        return live.get(build);
+    }
+
+    /**
+     * @return the newest log file of {@code build}, gzipped unless it was just finished
+     */
+    public @Nullable Path latest(String build) {
+        if (!namePattern.matcher(build).matches()) return null;
+        var logs = list(dir.resolve(build));
+        return logs.isEmpty() ? null : logs.getLast();
+    }
+
+    private void finish(String build, Path file) {
+        live.computeIfPresent(build, (key, log) -> log.file().equals(file) ? null : log);
+        var gzip = file.resolveSibling(file.getFileName() + ".gz");
+        var tmp = file.resolveSibling(file.getFileName() + ".gz.tmp");
+        try {
+            try (var out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+                Files.copy(file, out);
+            }
+            Files.move(tmp, gzip, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(file);
+        } catch (IOException e) {
+            System.out.println("Failed to compress log " + file + ", keeping it as is: " + e.getMessage());
+        }
+
+        var logs = list(file.getParent());
+        for (int i = 0; i < logs.size() - config.logs().keep(); i++) {
+            try {
+                Files.deleteIfExists(logs.get(i));
+            } catch (IOException e) {
+                System.out.println("Failed to delete old log " + logs.get(i) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the logs in {@code buildDir}, oldest first
+     */
+    private static List<Path> list(Path buildDir) {
+        if (!Files.isDirectory(buildDir)) return List.of();
+        var logs = new ArrayList<Path>();
+        try (var files = Files.list(buildDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (logPattern.matcher(file.getFileName().toString()).matches()) {
+                    logs.add(file);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to list logs in " + buildDir + ": " + e.getMessage());
+        }
+        // while a log is being compressed both files exist, the finished one sorts last
+        logs.sort(Comparator.comparingLong(BuildLogService::startedAt).thenComparing(file -> file.getFileName().toString().endsWith(".gz")));
+        return logs;
+    }
+
+    private static long startedAt(Path file) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+}
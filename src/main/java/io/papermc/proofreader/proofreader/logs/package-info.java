@@ -0,0 +1,4 @@
+@NullMarked
+package io.papermc.proofreader.proofreader.logs;
+
+import org.jspecify.annotations.NullMarked;
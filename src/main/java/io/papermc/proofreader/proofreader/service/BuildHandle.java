@@ -0,0 +1,59 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.papermc.proofreader.proofreader.logs.BuildLog;
+import org.jspecify.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tracks the child processes of a running build so a newer build of the same PR can cancel it, and the log their
+ * output goes to. The tiers of the pipeline run side by side, so there can be more than one process at a time.
+ */
+public class BuildHandle {
+
+    private volatile boolean cancelled;
+    private final Set<Process> processes = new HashSet<>();
+    private volatile @Nullable BuildLog log;
+
+    public synchronized void attach(Process process) {
+        processes.add(process);
+        if (cancelled) {
+            kill(process);
+        }
+    }
+
+    public synchronized void detach(Process process) {
+        processes.remove(process);
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        processes.forEach(BuildHandle::kill);
+    }
+
+    public @Nullable BuildLog log() {
+        return log;
+    }
+
+    public void log(@Nullable BuildLog log) {
+        this.log = log;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Build was superseded");
+        }
+    }
+
+    private static void kill(Process process) {
+        // children first, so gradlew can't respawn anything; the daemon notices its client going away and cancels the build
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,366 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config.Cluster.Role;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import org.jspecify.annotations.Nullable;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Queues builds and hands them to the executor while respecting the configured concurrency limit.
+ * Every PR holds at most one spot in the queue, higher priorities go first and within a priority it's first come, first served.
+ * Only one build per PR runs at a time, a build of a newer head commit cancels the running one and takes its place.
+ * <p>
+ * On a coordinator ({@code cluster.role: coordinator}) nothing runs locally, workers {@link #claim} jobs instead and
+ * keep them alive with {@link #heartbeat}s. Jobs of workers that stop sending those go back into the queue.
+ */
+@Service
+public class BuildScheduler {
+
+    public enum Priority {
+        /**
+         * main branch builds and builds explicitly requested by a maintainer
+         */
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    public enum Kind {
+        BUILD,
+        REBASE,
+        /**
+         * rebuild after main moved, see {@link BuildService#triggerStaleRebuilds}
+         */
+        STALE
+    }
+
+    /**
+     * What a job does, in a form that can be sent to a worker.
+     *
+     * @param useCache whether a cached result may be republished, for {@link Kind#BUILD}
+     * @param mainSha  the main the PR is stale against, for {@link Kind#STALE}
+     */
+    public record JobSpec(Kind kind, boolean useCache, @Nullable String mainSha) {
+    }
+
+    /**
+     * A job handed to a worker.
+     */
+    public record ClaimedJob(long id, State state, JobSpec spec) {
+    }
+
+    private final StateService states;
+    private final TaskExecutor taskExecutor;
+    private final int maxConcurrent;
+    private final boolean remote;
+    private final Duration heartbeatTimeout;
+    private final Timer waitTimer;
+
+    private final Object lock = new Object();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(Comparator.comparing(Job::priority).thenComparingLong(Job::seq));
+    private final Map<Long, Job> queuedByPr = new HashMap<>();
+    private final Map<Long, Job> runningByPr = new HashMap<>();
+    private final Map<Long, Claim> claims = new HashMap<>();
+    private final Map<String, Long> lastSeen = new HashMap<>();
+    private long nextSeq = 0;
+    private long nextId = 0;
+    private int running = 0;
+
+    public BuildScheduler(StateService states, Config config, TaskExecutor taskExecutor, MeterRegistry registry) {
+        this.states = states;
+        this.taskExecutor = taskExecutor;
+        this.maxConcurrent = Math.max(1, config.builds().maxConcurrent());
+        this.remote = config.cluster().role() == Role.COORDINATOR;
+        this.heartbeatTimeout = config.cluster().heartbeatTimeout();
+        this.waitTimer = Timer.builder("proofreader.builds.wait")
+                .description("Time builds spent waiting in the queue")
+                .register(registry);
+        Gauge.builder("proofreader.builds.queued", this, BuildScheduler::queueDepth)
+                .description("Builds waiting for a free slot")
+                .register(registry);
+        Gauge.builder("proofreader.builds.active", this, BuildScheduler::activeBuilds)
+                .description("Builds currently running")
+                .register(registry);
+    }
+
+    public void submit(State state, Priority priority, JobSpec spec, Consumer<BuildHandle> task) {
+        var revision = state.headSha;
+        synchronized (lock) {
+            var active = runningByPr.get(state.prNumber);
+            if (active != null && revision != null && active.revision() != null) {
+                if (!revision.equals(active.revision())) {
+                    System.out.println("Cancelling build of " + active.revision() + " for #" + state.prNumber + ", superseded by " + revision);
+                    active.handle().cancel();
+                } else if (priority != Priority.HIGH) {
+                    // that exact commit is already being built
+                    return;
+                }
+            }
+
+            var existing = queuedByPr.remove(state.prNumber);
+            long seq;
+            if (existing != null) {
+                // keep the spot in line, but only ever move up
+                queue.remove(existing);
+                seq = existing.seq();
+                if (existing.priority().compareTo(priority) < 0) {
+                    priority = existing.priority();
+                }
+            } else {
+                seq = nextSeq++;
+            }
+            var job = new Job(nextId++, state, priority, seq, System.nanoTime(), revision, new BuildHandle(), spec, task);
+            queue.add(job);
+            queuedByPr.put(state.prNumber, job);
+        }
+        dispatch();
+    }
+
+    /**
+     * @return whether a build of the PR is queued or running
+     */
+    public boolean isScheduled(long prNumber) {
+        synchronized (lock) {
+            return queuedByPr.containsKey(prNumber) || runningByPr.containsKey(prNumber);
+        }
+    }
+
+    /**
+     * Drops the queued job of the PR and cancels the running one, it was closed.
+     */
+    public void cancel(long prNumber) {
+        synchronized (lock) {
+            var queued = queuedByPr.remove(prNumber);
+            if (queued != null) {
+                queue.remove(queued);
+            }
+            var active = runningByPr.get(prNumber);
+            if (active != null) {
+                // on a coordinator the worker learns about it with its next heartbeat
+                active.handle().cancel();
+            }
+        }
+        updateQueuePositions();
+    }
+
+    /**
+     * Hands the next job to {@code worker}, it now counts as running until the worker {@link #complete completes} it
+     * or stops sending heartbeats.
+     */
+    public @Nullable ClaimedJob claim(String worker) {
+        Job job = null;
+        synchronized (lock) {
+            lastSeen.put(worker, System.nanoTime());
+            var waiting = new ArrayList<Job>();
+            while (job == null && !queue.isEmpty()) {
+                var next = queue.poll();
+                if (runningByPr.containsKey(next.state().prNumber)) {
+                    waiting.add(next);
+                } else {
+                    job = next;
+                }
+            }
+            queue.addAll(waiting);
+            if (job == null) {
+                return null;
+            }
+            queuedByPr.remove(job.state().prNumber);
+            runningByPr.put(job.state().prNumber, job);
+            claims.put(job.id(), new Claim(job, worker));
+            running++;
+        }
+        System.out.println("Worker " + worker + " claimed " + job.spec().kind() + " of " + job.state().branch);
+        waitTimer.record(Duration.ofNanos(System.nanoTime() - job.enqueuedAt()));
+        updateQueuePositions();
+        return new ClaimedJob(job.id(), job.state(), job.spec());
+    }
+
+    /**
+     * @return the jobs among {@code jobs} that were cancelled since and should be stopped
+     */
+    public List<Long> heartbeat(String worker, Collection<Long> jobs) {
+        synchronized (lock) {
+            lastSeen.put(worker, System.nanoTime());
+            var cancelled = new ArrayList<Long>();
+            for (Long id : jobs) {
+                var claim = claims.get(id);
+                if (claim == null || !claim.worker().equals(worker) || claim.job().handle().isCancelled()) {
+                    // a job we gave to someone else in the meantime is as good as cancelled
+                    cancelled.add(id);
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * @return whether {@code worker} currently holds job {@code id}, only then its reports are taken into account
+     */
+    public boolean holds(String worker, long id) {
+        synchronized (lock) {
+            var claim = claims.get(id);
+            return claim != null && claim.worker().equals(worker);
+        }
+    }
+
+    public void complete(String worker, long id) {
+        synchronized (lock) {
+            var claim = claims.get(id);
+            if (claim == null || !claim.worker().equals(worker)) return;
+            claims.remove(id);
+            runningByPr.remove(claim.job().state().prNumber, claim.job());
+            running--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Puts the jobs of workers we haven't heard from in {@code cluster.heartbeatTimeout} back into the queue.
+     */
+    @Scheduled(fixedDelayString = "${proofreader.cluster.reap-interval:PT10S}")
+    public void reapDeadWorkers() {
+        reapDeadWorkers(System.nanoTime());
+    }
+
+    /**
+     * @param now the {@link System#nanoTime} to measure the time since the last heartbeat against
+     */
+    public void reapDeadWorkers(long now) {
+        if (!remote) return;
+        var requeued = new ArrayList<Job>();
+        synchronized (lock) {
+            lastSeen.values().removeIf(seen -> now - seen > heartbeatTimeout.toNanos());
+            for (var it = claims.values().iterator(); it.hasNext(); ) {
+                var claim = it.next();
+                if (lastSeen.containsKey(claim.worker())) continue;
+                it.remove();
+                var job = claim.job();
+                runningByPr.remove(job.state().prNumber, job);
+                running--;
+                System.out.println("Worker " + claim.worker() + " is gone, requeueing " + job.spec().kind() + " of " + job.state().branch);
+                // unless it was superseded while it was running, then the newer one is queued already
+                if (!job.handle().isCancelled() && !queuedByPr.containsKey(job.state().prNumber)) {
+                    queue.add(job);
+                    queuedByPr.put(job.state().prNumber, job);
+                    requeued.add(job);
+                }
+            }
+        }
+        if (!requeued.isEmpty()) {
+            dispatch();
+        }
+    }
+
+    public int queueDepth() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public int activeBuilds() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    private void dispatch() {
+        var toStart = new ArrayList<Job>();
+        synchronized (lock) {
+            var waiting = new ArrayList<Job>();
+            // workers come and take jobs on a coordinator
+            while (!remote && running < maxConcurrent && !queue.isEmpty()) {
+                var job = queue.poll();
+                if (runningByPr.containsKey(job.state().prNumber)) {
+                    // wait for the previous build of this PR to wind down, it's using the same build dir
+                    waiting.add(job);
+                    continue;
+                }
+                queuedByPr.remove(job.state().prNumber);
+                runningByPr.put(job.state().prNumber, job);
+                running++;
+                toStart.add(job);
+            }
+            queue.addAll(waiting);
+        }
+
+        for (Job job : toStart) {
+            try {
+                taskExecutor.execute(() -> run(job));
+                waitTimer.record(Duration.ofNanos(System.nanoTime() - job.enqueuedAt()));
+            } catch (Exception e) {
+                // give back its slot and put it back in line, the next dispatch tries again
+                System.out.println("Failed to start build of " + job.state().branch + ", requeueing it: " + e.getMessage());
+                synchronized (lock) {
+                    runningByPr.remove(job.state().prNumber, job);
+                    running--;
+                    // unless a newer one was queued in the meantime
+                    if (!job.handle().isCancelled() && !queuedByPr.containsKey(job.state().prNumber)) {
+                        queue.add(job);
+                        queuedByPr.put(job.state().prNumber, job);
+                    }
+                }
+            }
+        }
+
+        updateQueuePositions();
+    }
+
+    private void run(Job job) {
+        try {
+            job.task().accept(job.handle());
+        } finally {
+            synchronized (lock) {
+                runningByPr.remove(job.state().prNumber);
+                running--;
+            }
+            dispatch();
+        }
+    }
+
+    private void updateQueuePositions() {
+        var changed = new ArrayList<State>();
+        synchronized (lock) {
+            var ordered = new ArrayList<>(queue);
+            ordered.sort(queue.comparator());
+            for (int i = 0; i < ordered.size(); i++) {
+                var state = ordered.get(i).state();
+                var active = runningByPr.get(state.prNumber);
+                if (active != null && !active.handle().isCancelled()) {
+                    // a forced rebuild of the commit being built, the running build owns the status until it's done
+                    continue;
+                }
+                var status = "Queued (position " + (i + 1) + " of " + ordered.size() + ")";
+                synchronized (state) {
+                    if (status.equals(state.status)) continue;
+                    state.status = status;
+                }
+                changed.add(state);
+            }
+        }
+        // don't talk to github while holding the lock
+        changed.forEach(states::updateState);
+    }
+
+    private record Job(long id, State state, Priority priority, long seq, long enqueuedAt, @Nullable String revision,
+                       BuildHandle handle, JobSpec spec, Consumer<BuildHandle> task) {
+    }
+
+    private record Claim(Job job, String worker) {
+    }
+}
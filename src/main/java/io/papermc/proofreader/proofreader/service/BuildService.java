@@ -1,165 +1,592 @@
 package io.papermc.proofreader.proofreader.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
+import io.papermc.proofreader.proofreader.cluster.ClusterClient;
+import io.papermc.proofreader.proofreader.github.GithubService;
+import io.papermc.proofreader.proofreader.logs.BuildLog;
+import io.papermc.proofreader.proofreader.logs.BuildLogService;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.JobSpec;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Kind;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Priority;
+import io.papermc.proofreader.proofreader.service.GradleService.TaskReport;
 import io.papermc.proofreader.proofreader.util.FileUtil;
-import org.springframework.core.task.TaskExecutor;
+import org.jspecify.annotations.Nullable;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
 import static io.papermc.proofreader.proofreader.service.StateService.*;
+import static io.papermc.proofreader.proofreader.service.StateService.BuildResult;
 import static io.papermc.proofreader.proofreader.service.StateService.State;
 
 @Service
 public class BuildService {
 
+    private static final List<String> ARTIFACTS = List.of(
+            "paper-server/build/libs/*paperclip*.jar",
+            "paper-server/build/libs/*bundle*.zip",
+            "paper-api/build/libs/paper-api-*.jar"
+    );
+    /**
+     * Part of the key of cached build results, bump it whenever a change to the pipeline changes what comes out of it.
+     */
+    private static final int PIPELINE_VERSION = 1;
+    private static final String MAIN_REF = "refs/proofreader/main";
+    private static final String HEAD_REF = "refs/proofreader/head";
+
     private final StateService states;
+    private final MirrorService mirror;
+    private final BuildScheduler scheduler;
+    private final GradleService gradle;
+    private final HistoryService history;
+    private final ArtifactStore artifacts;
+    private final BuildLogService logs;
+    private final GithubService github;
+    private final ClusterClient cluster;
+    private final WorkspaceManager workspaces;
     private final Config config;
-    private final TaskExecutor taskExecutor;
+    private final MeterRegistry registry;
 
-    BuildService(StateService states, Config config, TaskExecutor taskScheduler) {
+    BuildService(StateService states, MirrorService mirror, BuildScheduler scheduler, GradleService gradle, HistoryService history, ArtifactStore artifacts, BuildLogService logs, GithubService github, ClusterClient cluster, WorkspaceManager workspaces, Config config, MeterRegistry registry) {
         this.states = states;
+        this.mirror = mirror;
+        this.scheduler = scheduler;
+        this.gradle = gradle;
+        this.history = history;
+        this.artifacts = artifacts;
+        this.logs = logs;
+        this.github = github;
+        this.cluster = cluster;
+        this.workspaces = workspaces;
         this.config = config;
-        this.taskExecutor = taskScheduler;
+        this.registry = registry;
     }
 
     public void triggerBuild(State state) {
-        state.status = "Starting Build";
-        states.updateState(state);
-        taskExecutor.execute(() -> build(state));
+        triggerBuild(state, state instanceof MainState ? Priority.HIGH : Priority.NORMAL);
     }
 
-    void build(State state) {
-        try {
-            state.status = "Cloning repository";
-            states.updateState(state);
+    public void triggerBuild(State state, Priority priority) {
+        triggerBuild(state, priority, true);
+    }
 
-            ensureEmptyBuildDir(state);
-            cloneRepo(state);
+    /**
+     * @param useCache whether the result of an earlier build of the same head on the same main may be republished
+     *                 instead of building again
+     */
+    public void triggerBuild(State state, Priority priority, boolean useCache) {
+        submit(state, priority, new JobSpec(Kind.BUILD, useCache, null));
+    }
 
-            state.status = "Running build";
-            states.updateState(state);
-            runBuild(state);
+    private void submit(State state, Priority priority, JobSpec spec) {
+        scheduler.submit(state, priority, spec, task(state, spec));
+    }
 
-            // TODO
-//            saveArtifacts(state);
+    /**
+     * @return what running {@code spec} means, here or on a worker that claimed it
+     */
+    public Consumer<BuildHandle> task(State state, JobSpec spec) {
+        Consumer<BuildHandle> task = switch (spec.kind()) {
+            case BUILD -> handle -> build(state, handle, false, spec.useCache());
+            case REBASE -> handle -> rebase(state, handle);
+            case STALE -> handle -> rebuildStale(state, handle, Objects.requireNonNull(spec.mainSha()));
+        };
+        return handle -> {
+            // keeps the build dir from being evicted under us
+            workspaces.acquire(state);
+            try {
+                task.accept(handle);
+            } finally {
+                workspaces.release(state);
+            }
+        };
+    }
 
-            state.status = "Pushing source";
-            states.updateState(state);
-            pushSource(state);
+    void build(State state, BuildHandle handle) {
+        build(state, handle, false, true);
+    }
 
-            state.status = "Build completed successfully";
+    /**
+     * @param rebased whether {@link #rebase} just left the checkout at the head to build
+     */
+    private void build(State state, BuildHandle handle, boolean rebased, boolean useCache) {
+        var cached = useCache && !rebased ? cachedResult(state) : null;
+        if (cached != null && republish(state, handle, cached)) {
+            return;
+        }
+        if (useCache) {
+            registry.counter("proofreader.builds.cache", "outcome", "miss").increment();
+        }
+
+        var sample = Timer.start(registry);
+        var incremental = rebased || (config.builds().incremental() && hasCheckout(state));
+        var outcome = "failure";
+        var log = logs.open(state.buildName());
+        handle.log(log);
+        try {
+            PipelineResult result;
+            try {
+                result = runPipeline(state, handle, incremental, rebased);
+            } catch (Exception e) {
+                // a clean build clones pull/N/head, which github may not have moved to the rebased head yet, so it
+                // could build the head from before the rebase under the new one's name
+                if (!incremental || rebased || handle.isCancelled()) {
+                    throw e;
+                }
+                // leftovers of the previous build can break things in all kinds of ways, a clean build sorts that out
+                System.out.println("Incremental build of " + state.branch + " failed, falling back to a clean build: " + e.getMessage());
+                log.note("Incremental build failed, falling back to a clean build: " + e.getMessage());
+                registry.counter("proofreader.builds.fallbacks").increment();
+                result = runPipeline(state, handle, false, false);
+            }
+
+            var summary = result.report().summary();
+            state.result = new BuildResult(result.headSha(), result.baseSha(), PIPELINE_VERSION, result.publishedSha(), summary);
+            state.status = "Build completed successfully (" + summary + ")";
             states.updateState(state);
+            outcome = "success";
         } catch (Exception e) {
+            if (handle.isCancelled()) {
+                outcome = "cancelled";
+                // the build that replaced us is already queued and owns the status now
+                System.out.println("Build of " + state.branch + " was cancelled");
+                return;
+            }
             state.status = "Build failed: " + e.getMessage();
             if (e.getCause() != null) {
                 state.status += " | Cause: " + e.getCause().getMessage();
             }
+            state.status += failureExcerpt(state, log);
             states.updateState(state);
             e.printStackTrace();
+        } finally {
+            handle.log(null);
+            log.close();
+            sample.stop(Timer.builder("proofreader.builds.duration")
+                    .description("Time from a build leaving the queue until it finished")
+                    .tag("mode", incremental ? "incremental" : "clean")
+                    .tag("outcome", outcome)
+                    .register(registry));
+            gradle.evictCache();
         }
     }
 
-    private void pushSource(State state) {
+    /**
+     * @return the result of the last build, if it was built from the same head against the same main by the same
+     * pipeline as a build now would be
+     */
+    private @Nullable BuildResult cachedResult(State state) {
+        var result = state.result;
+        if (result == null || result.pipeline() != PIPELINE_VERSION) return null;
+        // the main the build started from, not the merge base, which is all a PR conflicting with main is built on
+        var base = state instanceof MainState ? state.headSha : states.main().headSha;
+        return result.headSha().equals(state.headSha) && result.baseSha().equals(base) ? result : null;
+    }
+
+    /**
+     * Points the patched branch back at what the cached build pushed, in case it was changed since, and keeps the
+     * artifacts. Takes seconds instead of the better part of an hour.
+     *
+     * @return false if something the cached result needs is gone, so it has to be built after all
+     */
+    private boolean republish(State state, BuildHandle handle, BuildResult result) {
+        var manifest = artifacts.manifest(state.buildName());
+        if (manifest == null || !result.headSha().equals(manifest.headSha()) || !hasCheckout(state)) {
+            return false;
+        }
         try {
-            // move paper-server/src/minecraft to pr-x-minecraft
-            var buildDir = Path.of(Objects.requireNonNull(state.buildDir));
-            var ogMcDir = buildDir.resolve("paper-server").resolve("src").resolve("minecraft");
-            var remoteDir = Path.of(Objects.requireNonNull(state.buildDir) + "-minecraft");
-            FileUtil.moveDirectory(ogMcDir, remoteDir);
+            stage(handle, "republish", () -> exec(handle, state, "Republishing " + state.branch, "git", "push", "-f",
+                    "https://github.com/" + config.targetRepo().withSlash(), result.publishedSha() + ":refs/heads/" + state.branch));
+        } catch (Exception e) {
+            if (handle.isCancelled()) return true;
+            System.out.println("Failed to republish cached build of " + state.branch + ", building it: " + e.getMessage());
+            return false;
+        }
+        System.out.println("Republished cached build of " + state.branch + " at " + result.headSha());
+        registry.counter("proofreader.builds.cache", "outcome", "hit").increment();
+        state.baseSha = result.baseSha();
+        state.publishedSha = result.publishedSha();
+        state.sourceStatus = "Published " + shortSha(result.headSha()) + " (cached)";
+        state.status = "Build completed successfully (" + result.summary() + ", cached)";
+        states.updateState(state);
+        return true;
+    }
 
-            // filter
-            exec(remoteDir.resolve("java"), "Filtering java", "git", "filter-repo", "--to-subdirectory-filter", "paper-server/src/minecraft/java", "--force");
-            exec(remoteDir.resolve("resources"), "Filtering resources", "git", "filter-repo", "--to-subdirectory-filter", "paper-server/src/minecraft/resources", "--force");
+    private String failureExcerpt(State state, BuildLog log) {
+        var excerpt = log.excerpt();
+        var link = "[Full log](" + config.baseUrl() + "/logs/" + state.buildName() + ")";
+        if (excerpt.isEmpty()) {
+            return "\n\n" + link;
+        }
+        // a fence in the output would end our code block early
+        return "\n\n```\n" + excerpt.replace("```", "'''") + "\n```\n" + link;
+    }
 
-            // adding remotes
-            exec(buildDir, "Adding java remote", "git", "remote", "add", "-f", "java", buildDir.relativize(remoteDir.resolve("java")).toString());
-            exec(buildDir, "Adding resources remote", "git", "remote", "add", "-f", "resources", buildDir.relativize(remoteDir.resolve("resources")).toString());
+    /**
+     * Runs one step of the pipeline, timing it as {@code proofreader.builds.stage}.
+     */
+    private <T> T stage(BuildHandle handle, String stage, Callable<T> action) throws Exception {
+        var sample = Timer.start(registry);
+        var outcome = "failure";
+        try {
+            var result = action.call();
+            outcome = "success";
+            return result;
+        } finally {
+            if (handle.isCancelled()) {
+                outcome = "cancelled";
+            }
+            sample.stop(Timer.builder("proofreader.builds.stage")
+                    .description("Time spent in each step of the build pipeline")
+                    .tag("stage", stage)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
 
-            // merging
-            exec(buildDir, "Merging java", "git", "merge", "--allow-unrelated-histories", "java/main");
-            exec(buildDir, "Merging resources", "git", "merge", "--allow-unrelated-histories", "resources/main");
+    private void stage(BuildHandle handle, String stage, Step step) throws Exception {
+        stage(handle, stage, () -> {
+            step.run();
+            return null;
+        });
+    }
 
-            // pushing
-            exec(buildDir, "Adding proofreader remote", "git", "remote", "add", "proofreader", "https://github.com/" + config.targetRepo().withSlash());
-            exec(buildDir, "Pushing to proofreader", "git", "push", "proofreader", "-f");
-        } catch (Exception e) {
-            throw new RuntimeException("Pushing source failed", e);
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    /**
+     * Adds a step to {@code graph} that is timed like the ones run directly.
+     */
+    private <T> StageGraph.Stage<T> stage(StageGraph graph, BuildHandle handle, String stage, Callable<T> action, StageGraph.Stage<?>... after) {
+        return graph.add(stage, () -> stage(handle, stage, action), after);
+    }
+
+    private PipelineResult runPipeline(State state, BuildHandle handle, boolean incremental, boolean checkedOut) throws Exception {
+        if (checkedOut) {
+            System.out.println("Building rebased checkout in " + state.buildDir);
+        } else if (incremental) {
+            state.status = "Updating checkout";
+            states.updateState(state);
+            stage(handle, "checkout", () -> updateCheckout(state, handle));
+        } else {
+            state.status = "Cloning repository";
+            states.updateState(state);
+            stage(handle, "clone", () -> {
+                ensureEmptyBuildDir(state);
+                cloneRepo(state, handle);
+            });
+        }
+
+        var head = output(handle, state, "Git rev-parse", "git", "rev-parse", "HEAD");
+        var base = head;
+        if (!(state instanceof MainState)) {
+            base = stage(handle, "mergeMain", () -> mergeMain(state, handle));
+        }
+
+        var report = gradle.newReport();
+        state.status = "Applying patches";
+        states.updateState(state);
+        runGradle(state, handle, report, "applyPatches", "Apply patches", "applyPatches");
+
+        // from here on, the source tier only reads the patched sources and the jars only need gradle, see publishing()
+        var checkout = output(handle, state, "Git rev-parse", "git", "rev-parse", "HEAD");
+        var graph = new StageGraph(state.buildName(), config.builds().maxParallelStages());
+        var gradleBuild = stage(graph, handle, "gradleBuild", () -> {
+            state.status = "Running build";
+            states.updateState(state);
+            runGradle(state, handle, report, "gradleBuild", "Gradle build", "build", "createMojmapPaperclipJar", "generateDevelopmentBundle");
+            return gradle.finishReport(state.branch, report);
+        });
+        var push = publishing(graph, state, handle, head, checkout);
+        stage(graph, handle, "artifacts", () -> {
+            state.status = "Saving artifacts";
+            states.updateState(state);
+            saveArtifacts(state, head);
+            if (!push.isDone()) {
+                state.status = "Waiting for source to be published";
+                states.updateState(state);
+            }
+            return null;
+        }, gradleBuild);
+        graph.run();
+        return new PipelineResult(gradleBuild.result(), head, base, push.result());
+    }
+
+    /**
+     * @param headSha the commit that was built
+     * @param baseSha the main that was merged into it, or that it conflicted with, see {@link #mergeMain}
+     * @param publishedSha the commit pushed as the patched branch
+     */
+    private record PipelineResult(TaskReport report, String headSha, String baseSha, String publishedSha) {
+    }
+
+    /**
+     * Adds the source tier to {@code graph}, it merges the rewritten minecraft history into {@code checkout} and
+     * pushes the result as the patched branch, so reviewers can browse it while gradle is still building the jars.
+     * It only reads the patched sources and writes git objects, the merge happens in {@code git merge-tree} rather
+     * than in the working tree, so gradle can build the same checkout meanwhile. The java and resources histories are
+     * rewritten side by side, they only meet in the merge.
+     *
+     * @param head the commit being built, {@link State#headSha} may already have moved on to the next one
+     * @return the push stage, its result is the commit that was pushed
+     */
+    private StageGraph.Stage<String> publishing(StageGraph graph, State state, BuildHandle handle, String head, String checkout) {
+        var buildDir = Path.of(Objects.requireNonNull(state.buildDir));
+        var mcDir = buildDir.resolve("paper-server").resolve("src").resolve("minecraft");
+        history.linkAlternates(buildDir);
+        state.sourceStatus = "Publishing";
+        states.updateState(state);
+
+        // rewriting, only what's new since the last build
+        var java = stage(graph, handle, "rewriteJava", publishStep(state, handle,
+                () -> history.rewrite(handle, mcDir.resolve("java"), "java", "paper-server/src/minecraft/java")));
+        var resources = stage(graph, handle, "rewriteResources", publishStep(state, handle,
+                () -> history.rewrite(handle, mcDir.resolve("resources"), "resources", "paper-server/src/minecraft/resources")));
+
+        // merging
+        var merge = stage(graph, handle, "merge", publishStep(state, handle, () -> {
+            var withJava = mergeCommit(handle, state, checkout, java.result(), "Merge minecraft java");
+            return mergeCommit(handle, state, withJava, resources.result(), "Merge minecraft resources");
+        }), java, resources);
+
+        // pushing
+        return stage(graph, handle, "push", publishStep(state, handle, () -> {
+            var merged = merge.result();
+            exec(handle, buildDir, "Pushing to proofreader", "git", "push", "-f", "https://github.com/" + config.targetRepo().withSlash(), merged + ":refs/heads/" + state.branch);
+            state.publishedSha = merged;
+            state.sourceStatus = "Published " + shortSha(head);
+            states.updateState(state);
+            return merged;
+        }), merge);
+    }
+
+    /**
+     * A step of the source tier, which reports its failure in its own status line.
+     */
+    private <T> Callable<T> publishStep(State state, BuildHandle handle, Callable<T> step) {
+        return () -> {
+            try {
+                return step.call();
+            } catch (Exception e) {
+                if (!handle.isCancelled()) {
+                    state.sourceStatus = "Publishing failed: " + e.getMessage();
+                    states.updateState(state);
+                }
+                throw new RuntimeException("Publishing source failed", e);
+            }
+        };
+    }
+
+    /**
+     * @return a commit merging {@code other} into {@code base}, made without touching the working tree or index
+     */
+    private String mergeCommit(BuildHandle handle, State state, String base, String other, String message) throws Exception {
+        var tree = output(handle, state, "Git merge-tree", "git", "merge-tree", "--write-tree", "--allow-unrelated-histories", base, other);
+        return output(handle, state, "Git commit-tree", "git", "commit-tree", tree, "-p", base, "-p", other, "-m", message);
+    }
+
+    private static String shortSha(@Nullable String sha) {
+        return sha == null ? "" : sha.substring(0, Math.min(7, sha.length()));
+    }
+
+    private void saveArtifacts(State state, String head) {
+        var buildDir = Path.of(Objects.requireNonNull(state.buildDir));
+        var files = new ArrayList<Path>();
+        for (String pattern : ARTIFACTS) {
+            var matcher = buildDir.getFileSystem().getPathMatcher("glob:" + pattern);
+            var libs = buildDir.resolve(pattern.substring(0, pattern.lastIndexOf('/')));
+            if (!Files.isDirectory(libs)) continue;
+            try (var candidates = Files.list(libs)) {
+                candidates.filter(file -> matcher.matches(buildDir.relativize(file))).sorted().forEach(files::add);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to collect artifacts", e);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new RuntimeException("Build produced no artifacts");
+        }
+        artifacts.store(state.buildName(), head, files);
+        if (cluster.isWorker()) {
+            // the coordinator serves the downloads
+            cluster.uploadArtifacts(state.buildName(), head, files);
         }
     }
 
-    private void runBuild(State state) {
+    private void runGradle(State state, BuildHandle handle, Path report, String stage, String thing, String... tasks) {
         try {
-            System.out.println("Running build in " + state.buildDir);
-            var executable = System.getProperty("os.name").toLowerCase().contains("win") ? "gradlew.bat" : "./gradlew";
-
-            var pb = new ProcessBuilder()
-                    .command(executable, "applyPatches")
-                    .directory(Path.of(Objects.requireNonNull(state.buildDir)).toFile())
-                    .inheritIO();
-            pb.environment().putAll(buildGradleEnv());
-            exec(pb, "Apply patches");
-
-            pb = new ProcessBuilder()
-                    .command(executable, "build", "createMojmapPaperclipJar", "generateDevelopmentBundle")
-                    .directory(Path.of(Objects.requireNonNull(state.buildDir)).toFile())
-                    .inheritIO();
-            pb.environment().putAll(buildGradleEnv());
-            exec(pb, "Gradle build");
+            System.out.println("Running " + String.join(" ", tasks) + " in " + state.buildDir);
+            var buildDir = Path.of(Objects.requireNonNull(state.buildDir));
+            stage(handle, stage, () -> exec(handle, gradle.newBuild(buildDir, report, tasks), thing));
         } catch (Exception e) {
+            gradle.finishReport(state.branch, report);
             throw new RuntimeException("Build process failed", e);
         }
     }
 
-    private void cloneRepo(State state) {
+    private void cloneRepo(State state, BuildHandle handle) {
         try {
             System.out.println("Cloning repo into " + state.buildDir);
-            exec(state, "Git init", "git", "init");
-            var fetchTarget = "pull/" + state.prNumber + "/head:" + state.branch;
-            if (state instanceof MainState) {
-                fetchTarget = state.branch + ":" + state.branch;
-            }
-            exec(state, "Git fetch", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git", fetchTarget);
-            exec(state, "Git switch", "git", "switch", state.branch);
+            var start = System.nanoTime();
+            exec(handle, state, "Git init", "git", "init");
+            // borrow everything we already have from the mirror, so the fetch below only transfers the PR's new objects
+            var warm = mirror.linkAlternates(Path.of(Objects.requireNonNull(state.buildDir)));
+            exec(handle, state, "Git fetch", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git", sourceRef(state) + ":" + state.branch);
+            exec(handle, state, "Git switch", "git", "switch", state.branch);
+            mirror.recordClone(warm, Duration.ofNanos(System.nanoTime() - start));
         } catch (Exception e) {
             throw new RuntimeException("Git clone failed", e);
         }
     }
 
-    private void exec(ProcessBuilder pb, String thing) throws Exception {
-        var result = pb.start().waitFor();
+    /**
+     * Merges the current main into the checkout (locally, the PR branch is left alone), so the patched branch we push
+     * differs from the patched main only by what the PR changes. If main can't be merged cleanly the PR is built as it
+     * is, on top of its merge base. Either way, {@link State#baseSha} records the main that was tried, so a PR that
+     * conflicts with it isn't rebuilt for every push to main, only once main moved past the main it conflicted with.
+     */
+    private String mergeMain(State state, BuildHandle handle) throws Exception {
+        exec(handle, state, "Git fetch main", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git", "+main:" + MAIN_REF);
+        var main = output(handle, state, "Git rev-parse", "git", "rev-parse", MAIN_REF);
+        if (!tryExec(handle, state, "Git merge-base", "git", "merge-base", "--is-ancestor", MAIN_REF, "HEAD")) {
+            if (tryExec(handle, state, "Git merge main", "git", "merge", "--no-edit", "-m", "Merge main", MAIN_REF)) {
+                System.out.println("Merged main " + main + " into " + state.branch);
+            } else {
+                exec(handle, state, "Git merge abort", "git", "merge", "--abort");
+                var mergeBase = output(handle, state, "Git merge-base", "git", "merge-base", "HEAD", MAIN_REF);
+                System.out.println(state.branch + " conflicts with main " + main + ", building it on top of " + mergeBase);
+            }
+        }
+        state.baseSha = main;
+        return main;
+    }
+
+    /**
+     * Moves the checkout of the previous build to the new head. Ignored files (gradle caches, build outputs, the
+     * decompiled sources) are left alone, so gradle's up-to-date checks can skip whatever didn't change.
+     */
+    private void updateCheckout(State state, BuildHandle handle) {
+        try {
+            System.out.println("Updating checkout in " + state.buildDir);
+            exec(handle, state, "Git fetch", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git", sourceRef(state));
+            // drops the local merge of main from last time, too
+            exec(handle, state, "Git reset", "git", "reset", "--hard", "FETCH_HEAD");
+            exec(handle, state, "Git clean", "git", "clean", "-fd");
+        } catch (Exception e) {
+            throw new RuntimeException("Git update failed", e);
+        }
+    }
+
+    private boolean hasCheckout(State state) {
+        return state.buildDir != null && Files.isDirectory(Path.of(state.buildDir).resolve(".git"));
+    }
+
+    private String sourceRef(State state) {
+        if (state instanceof MainState) {
+            return state.branch;
+        }
+        return "pull/" + state.prNumber + "/head";
+    }
+
+    private void exec(BuildHandle handle, ProcessBuilder pb, String thing) throws Exception {
+        var result = run(handle, pb, thing);
         if (result != 0) {
             throw new RuntimeException(thing + " failed with exit code " + result);
         }
     }
 
-    private void exec(State state, String thing, String... command) throws Exception {
-        exec(Path.of(Objects.requireNonNull(state.buildDir)), thing, command);
+    private int run(BuildHandle handle, ProcessBuilder pb, String thing) throws Exception {
+        handle.checkCancelled();
+        var log = handle.log();
+        if (log == null) {
+            // quick checks outside of a build, not worth a log of their own
+            pb.inheritIO();
+        } else {
+            // stdout and stderr share one pipe, which the log drains as output comes so the child never blocks on it
+            pb.redirectErrorStream(true);
+        }
+        var process = pb.start();
+        handle.attach(process);
+        int result;
+        try {
+            if (log != null) {
+                var pump = log.capture(thing, process.getInputStream());
+                // nothing reads stdin
+                process.getOutputStream().close();
+                result = process.waitFor();
+                // gradle's failure summary is the last thing it prints. A daemon a child left behind could hold the
+                // pipe open forever though
+                pump.join(Duration.ofSeconds(10));
+            } else {
+                result = process.waitFor();
+            }
+        } finally {
+            handle.detach(process);
+        }
+        handle.checkCancelled();
+        return result;
+    }
+
+    private void exec(BuildHandle handle, State state, String thing, String... command) throws Exception {
+        exec(handle, Path.of(Objects.requireNonNull(state.buildDir)), thing, command);
+    }
+
+    private void exec(BuildHandle handle, Path dir, String thing, String... command) throws Exception {
+        exec(handle, processBuilder(dir, command), thing);
     }
 
-    private void exec(Path dir, String thing, String... command) throws Exception {
+    /**
+     * @return whether the command succeeded, for commands where failing is an answer rather than an error
+     */
+    private boolean tryExec(BuildHandle handle, State state, String thing, String... command) throws Exception {
+        return run(handle, processBuilder(Path.of(Objects.requireNonNull(state.buildDir)), command), thing) == 0;
+    }
+
+    /**
+     * Runs a command for its (short) output, stderr goes to the log.
+     */
+    private String output(BuildHandle handle, State state, String thing, String... command) throws Exception {
+        handle.checkCancelled();
+        var log = Objects.requireNonNull(handle.log());
+        var process = processBuilder(Path.of(Objects.requireNonNull(state.buildDir)), command).start();
+        handle.attach(process);
+        try {
+            var pump = log.capture(thing, process.getErrorStream());
+            process.getOutputStream().close();
+            var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            var result = process.waitFor();
+            pump.join(Duration.ofSeconds(10));
+            handle.checkCancelled();
+            if (result != 0) {
+                throw new RuntimeException(thing + " failed with exit code " + result);
+            }
+            return output.strip();
+        } finally {
+            handle.detach(process);
+        }
+    }
+
+    private static ProcessBuilder processBuilder(Path dir, String... command) {
         System.out.println("Executing " + String.join(" ", command) + " in " + dir);
-        var pb = new ProcessBuilder()
+        return new ProcessBuilder()
                 .command(command)
-                .directory(dir.toFile())
-                .inheritIO();
-        exec(pb, thing);
+                .directory(dir.toFile());
     }
 
     private void ensureEmptyBuildDir(State state) {
-        if (state.buildDir == null) {
-            if (state instanceof MainState) {
-                state.buildDir = "work/builds/main";
-            } else {
-                state.buildDir = "work/builds/pr-" + state.prNumber;
-            }
-        }
-        var dir = Path.of(state.buildDir);
+        // set by the workspace manager
+        var dir = Path.of(Objects.requireNonNull(state.buildDir));
         if (Files.exists(dir)) {
             FileUtil.deleteRecursively(dir);
         }
@@ -170,24 +597,183 @@ public class BuildService {
         }
     }
 
-    private Map<String, String> buildGradleEnv() {
-        var env = new HashMap<String, String>();
-        env.put("CI", "true");
-
-        if (StringUtils.hasText(config.buildCachePassword()) && StringUtils.hasText(config.buildCacheUser())) {
-            env.put("ORG_GRADLE_PROJECT_paperBuildCacheEnabled", "true");
-            env.put("ORG_GRADLE_PROJECT_paperBuildCacheUsername", config.buildCacheUser());
-            env.put("ORG_GRADLE_PROJECT_paperBuildCachePassword", config.buildCachePassword());
-            env.put("ORG_GRADLE_PROJECT_paperBuildCachePush", "true");
+    /**
+     * Rebuilds the PRs whose last build was based on an older main than {@code mainSha}, so their patched branch
+     * doesn't drift from the patched main. They go in at low priority, behind everything else; PRs that are queued or
+     * building anyway are left alone, they pick up the new main on their own.
+     */
+    public void triggerStaleRebuilds(String mainSha) {
+        var stale = 0;
+        for (State state : states.all()) {
+            if (state.baseSha == null || state.baseSha.equals(mainSha) || state.headSha == null || state.firstTimer && !state.approved) continue;
+            if (scheduler.isScheduled(state.prNumber)) continue;
+            submit(state, Priority.LOW, new JobSpec(Kind.STALE, true, mainSha));
+            stale++;
         }
+        System.out.println("Main moved to " + mainSha + ", queued rebuilds of " + stale + " stale PRs");
+    }
 
-        return env;
+    private void rebuildStale(State state, BuildHandle handle, String mainSha) {
+        var base = state.baseSha;
+        if (base != null && hasCheckout(state)) {
+            try {
+                // if main only changed things that don't end up in the patched source or the jars, the last build is still good
+                exec(handle, state, "Git fetch main", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git", "+main:" + MAIN_REF);
+                if (tryExec(handle, state, "Git diff", "git", "diff", "--quiet", base, mainSha, "--", ".", ":(exclude).github", ":(exclude)*.md")) {
+                    System.out.println("Main changes since " + base + " don't affect " + state.branch + ", skipping rebuild");
+                    registry.counter("proofreader.builds.stale", "outcome", "skipped").increment();
+                    state.baseSha = mainSha;
+                    states.updateState(state);
+                    return;
+                }
+            } catch (Exception e) {
+                if (handle.isCancelled()) return;
+                System.out.println("Failed to check whether " + state.branch + " needs a rebuild, rebuilding: " + e.getMessage());
+            }
+        }
+        registry.counter("proofreader.builds.stale", "outcome", "rebuilt").increment();
+        build(state, handle);
     }
 
+    /**
+     * Rebases the PR onto main because a maintainer asked for it, ahead of everything else in the queue.
+     */
     public void triggerRebase(State state) {
-        // TODO trigger rebase
-        state.status = "Starting rebase";
+        triggerRebase(state, Priority.HIGH);
+    }
 
-        states.updateState(state);
+    public void triggerRebase(State state, Priority priority) {
+        if (state instanceof MainState) return;
+        submit(state, priority, new JobSpec(Kind.REBASE, false, null));
+    }
+
+    /**
+     * Queues a rebase of every PR we know of after main moved. They go in at low priority, so they only use slots that
+     * neither builds nor rebases a maintainer asked for need; PRs that are closed or already on top of main are done
+     * quickly.
+     */
+    public void triggerRebases() {
+        var queued = 0;
+        for (State state : states.all()) {
+            if (state instanceof MainState || state.headSha == null || state.firstTimer && !state.approved) continue;
+            triggerRebase(state, Priority.LOW);
+            queued++;
+        }
+        System.out.println("Queued rebases of " + queued + " PRs onto the new main");
+    }
+
+    /**
+     * Rebases the PR onto main in its build dir and pushes the result to the PR branch. A clean rebase goes on to
+     * build the new head right away, conflicts are reported in the comment.
+     */
+    void rebase(State state, BuildHandle handle) {
+        var outcome = "failure";
+        var log = logs.open(state.buildName());
+        handle.log(log);
+        try {
+            var pr = github.getPullRequest(state.prNumber);
+            var headRepo = pr.head().repo();
+            if (!pr.state().equals("open")) {
+                outcome = "closed";
+                return;
+            }
+            if (headRepo == null) {
+                outcome = "rejected";
+                state.status = "Rebase failed: the PR branch doesn't exist anymore";
+                states.updateState(state);
+                return;
+            }
+            if (!headRepo.full_name().equals(config.sourceRepo().withSlash()) && !pr.maintainer_can_modify()) {
+                outcome = "rejected";
+                state.status = "Rebase failed: the PR doesn't allow edits from maintainers";
+                states.updateState(state);
+                return;
+            }
+
+            state.status = "Rebasing onto main";
+            states.updateState(state);
+            var result = stage(handle, "rebase", () -> rebaseCheckout(state, handle));
+            if (result.newHead() == null) {
+                outcome = result.conflicts().isEmpty() ? "up_to_date" : "conflict";
+                state.status = result.conflicts().isEmpty() ? "Already up to date with main" : conflictStatus(result);
+                states.updateState(state);
+                return;
+            }
+
+            state.status = "Pushing rebased branch";
+            states.updateState(state);
+            // the lease makes sure we don't throw away commits pushed while we were rebasing
+            stage(handle, "pushRebase", () -> exec(handle, state, "Pushing rebased branch", "git", "push",
+                    "--force-with-lease=refs/heads/" + pr.head().ref() + ":" + result.oldHead(),
+                    "https://github.com/" + headRepo.full_name() + ".git", "HEAD:refs/heads/" + pr.head().ref()));
+            outcome = "success";
+            System.out.println("Rebased #" + state.prNumber + " from " + result.oldHead() + " to " + result.newHead());
+            // the synchronize webhook for our own push is ignored, since we already know the new head
+            state.headSha = result.newHead();
+        } catch (Exception e) {
+            if (handle.isCancelled()) {
+                outcome = "cancelled";
+                System.out.println("Rebase of " + state.branch + " was cancelled");
+                return;
+            }
+            state.status = "Rebase failed: " + e.getMessage();
+            if (e.getCause() != null) {
+                state.status += " | Cause: " + e.getCause().getMessage();
+            }
+            state.status += failureExcerpt(state, log);
+            states.updateState(state);
+            e.printStackTrace();
+            return;
+        } finally {
+            registry.counter("proofreader.rebases", "outcome", outcome).increment();
+            handle.log(null);
+            log.close();
+        }
+        build(state, handle, true, false);
+    }
+
+    private RebaseResult rebaseCheckout(State state, BuildHandle handle) throws Exception {
+        if (!hasCheckout(state)) {
+            ensureEmptyBuildDir(state);
+            exec(handle, state, "Git init", "git", "init");
+            mirror.linkAlternates(Path.of(Objects.requireNonNull(state.buildDir)));
+        }
+        exec(handle, state, "Git fetch", "git", "fetch", "https://github.com/" + config.sourceRepo().withSlash() + ".git",
+                "+main:" + MAIN_REF, "+" + sourceRef(state) + ":" + HEAD_REF);
+        // this also drops the local merge of main
+        exec(handle, state, "Git checkout", "git", "checkout", "-f", "-B", state.branch, HEAD_REF);
+        exec(handle, state, "Git clean", "git", "clean", "-fd");
+
+        var oldHead = output(handle, state, "Git rev-parse", "git", "rev-parse", "HEAD");
+        var main = output(handle, state, "Git rev-parse", "git", "rev-parse", MAIN_REF);
+        if (output(handle, state, "Git merge-base", "git", "merge-base", "HEAD", MAIN_REF).equals(main)) {
+            return new RebaseResult(oldHead, null, null, List.of());
+        }
+        if (tryExec(handle, state, "Git rebase", "git", "rebase", MAIN_REF)) {
+            return new RebaseResult(oldHead, output(handle, state, "Git rev-parse", "git", "rev-parse", "HEAD"), null, List.of());
+        }
+
+        // the patch files, mostly. With those, the PR author knows which patches to rebuild
+        var conflicts = output(handle, state, "Git diff", "git", "diff", "--name-only", "--diff-filter=U").lines().toList();
+        var commit = output(handle, state, "Git log", "git", "log", "-1", "--format=%h %s", "REBASE_HEAD");
+        exec(handle, state, "Git rebase abort", "git", "rebase", "--abort");
+        if (conflicts.isEmpty()) {
+            throw new RuntimeException("Git rebase failed at " + commit);
+        }
+        return new RebaseResult(oldHead, null, commit, conflicts);
+    }
+
+    private static String conflictStatus(RebaseResult result) {
+        var status = new StringBuilder("Rebase onto main failed, `" + result.failedCommit() + "` conflicts in:");
+        for (String file : result.conflicts()) {
+            status.append("\n- `").append(file).append('`');
+        }
+        return status.toString();
+    }
+
+    /**
+     * @param newHead the rebased head, null if nothing was pushed (already up to date or conflicts)
+     */
+    private record RebaseResult(String oldHead, @Nullable String newHead, @Nullable String failedCommit, List<String> conflicts) {
     }
 }
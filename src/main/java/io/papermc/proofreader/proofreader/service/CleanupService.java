@@ -0,0 +1,231 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.cluster.ClusterClient;
+import io.papermc.proofreader.proofreader.github.GithubService;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans up after closed PRs: their patched branch on the target repo, their build dir and their state. Closing a
+ * PR only queues it, the queue is worked off in batches, so closing a hundred stale PRs at once costs one push. The
+ * sweep catches whatever the webhooks missed, it compares the open PRs against our states and the target's branches.
+ */
+@Service
+public class CleanupService {
+
+    private static final Pattern branchPattern = Pattern.compile("refs/heads/pr/(\\d+)");
+    private static final int BATCH_SIZE = 100;
+
+    private final StateService states;
+    private final BuildScheduler scheduler;
+    private final WorkspaceManager workspaces;
+    private final GithubService github;
+    private final ClusterClient cluster;
+    private final Config config;
+    private final MeterRegistry registry;
+
+    private final Set<Long> closed = new LinkedHashSet<>();
+    private final ReentrantLock cleanupLock = new ReentrantLock();
+
+    public CleanupService(StateService states, BuildScheduler scheduler, WorkspaceManager workspaces, GithubService github, ClusterClient cluster, Config config, MeterRegistry registry) {
+        this.states = states;
+        this.scheduler = scheduler;
+        this.workspaces = workspaces;
+        this.github = github;
+        this.cluster = cluster;
+        this.config = config;
+        this.registry = registry;
+    }
+
+    /**
+     * Stops building the PR right away, the rest happens with the next batch.
+     */
+    public void closed(long prNumber) {
+        scheduler.cancel(prNumber);
+        synchronized (closed) {
+            closed.add(prNumber);
+        }
+    }
+
+    /**
+     * Takes the PR off the next batch. If a cleanup is running, this waits for it, so the state the PR gets built on
+     * afterwards isn't archived under it.
+     */
+    public void reopened(long prNumber) {
+        cleanupLock.lock();
+        try {
+            synchronized (closed) {
+                closed.remove(prNumber);
+            }
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${proofreader.cleanup.interval:PT1M}")
+    public void flush() {
+        // taken before the batch, a PR reopened meanwhile is either still in closed or waits for us to finish
+        cleanupLock.lock();
+        try {
+            List<Long> batch;
+            synchronized (closed) {
+                if (closed.isEmpty()) return;
+                batch = List.copyOf(closed);
+                closed.clear();
+            }
+            try {
+                cleanUp(batch);
+            } catch (Exception e) {
+                System.out.println("Failed to clean up after " + batch.size() + " closed PRs, retrying with the next batch: " + e.getMessage());
+                synchronized (closed) {
+                    closed.addAll(batch);
+                }
+            }
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${proofreader.cleanup.sweep-initial-delay:PT15M}", fixedDelayString = "${proofreader.cleanup.sweep-interval:PT24H}")
+    public void sweep() {
+        // workers don't hear about PRs closing, the coordinator cleans up the branches and its states
+        if (cluster.isWorker()) return;
+        // held from listing the open PRs on, a PR reopened meanwhile waits for us
+        cleanupLock.lock();
+        try {
+            var open = github.getOpenPullRequests();
+            var stale = new TreeSet<Long>();
+            for (State state : states.all()) {
+                if (!open.contains(state.prNumber)) {
+                    stale.add(state.prNumber);
+                }
+            }
+            for (Long pr : remoteBranches()) {
+                if (!open.contains(pr)) {
+                    stale.add(pr);
+                }
+            }
+            synchronized (closed) {
+                stale.removeAll(closed);
+            }
+            // a PR opened after we listed them isn't in the list but may well have a state by now
+            stale.removeIf(this::isOpen);
+            if (stale.isEmpty()) return;
+            System.out.println("Sweep found " + stale.size() + " closed PRs that weren't cleaned up");
+            registry.counter("proofreader.cleanup.swept").increment(stale.size());
+            stale.forEach(scheduler::cancel);
+            cleanUp(stale);
+        } catch (Exception e) {
+            System.out.println("Failed to sweep closed PRs: " + e.getMessage());
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    /**
+     * Callers hold {@link #cleanupLock} from before they picked {@code prs}, see {@link #reopened}.
+     */
+    private void cleanUp(Collection<Long> prs) throws Exception {
+        // the target has the last say, don't trip over branches that were deleted by hand
+        var existing = remoteBranches();
+        var branches = new ArrayList<String>();
+        for (Long pr : prs) {
+            if (existing.contains(pr)) {
+                branches.add("refs/heads/pr/" + pr);
+            }
+        }
+        for (int i = 0; i < branches.size(); i += BATCH_SIZE) {
+            var batch = branches.subList(i, Math.min(i + BATCH_SIZE, branches.size()));
+            deleteBranches(batch);
+            registry.counter("proofreader.cleanup.branches").increment(batch.size());
+        }
+
+        for (Long pr : prs) {
+            var state = states.findState(pr);
+            if (state == null) continue;
+            workspaces.discard(state);
+            states.archive(state);
+            registry.counter("proofreader.cleanup.prs").increment();
+        }
+        System.out.println("Cleaned up after " + prs.size() + " closed PRs, deleted " + branches.size() + " branches");
+    }
+
+    private boolean isOpen(long prNumber) {
+        try {
+            return "open".equals(github.getPullRequest(prNumber).state());
+        } catch (Exception e) {
+            // not a PR at all, comments on issues get a state too
+            return false;
+        }
+    }
+
+    /**
+     * @return the PRs that have a patched branch on the target repo
+     */
+    private Set<Long> remoteBranches() throws Exception {
+        var output = git(null, "Git ls-remote", "git", "ls-remote", "--heads", targetUrl(), "pr/*");
+        var prs = new TreeSet<Long>();
+        for (String line : output.split("\n")) {
+            var parts = line.split("\t");
+            if (parts.length != 2) continue;
+            var matcher = branchPattern.matcher(parts[1]);
+            if (matcher.matches()) {
+                prs.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        return prs;
+    }
+
+    private void deleteBranches(List<String> refs) throws Exception {
+        // push wants a repo to push from, even if all it does is delete
+        var scratch = Files.createTempDirectory("proofreader-cleanup");
+        try {
+            git(scratch, "Git init", "git", "init", "--bare", "-q");
+            var command = new ArrayList<>(List.of("git", "push", "--quiet", targetUrl()));
+            for (String ref : refs) {
+                command.add(":" + ref);
+            }
+            git(scratch, "Deleting " + refs.size() + " branches", command.toArray(String[]::new));
+        } finally {
+            FileUtil.deleteRecursively(scratch);
+        }
+    }
+
+    private String targetUrl() {
+        return "https://github.com/" + config.targetRepo().withSlash();
+    }
+
+    private static String git(@Nullable Path dir, String thing, String... command) throws Exception {
+        var pb = new ProcessBuilder()
+                .command(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        if (dir != null) {
+            pb.directory(dir.toFile());
+        }
+        var process = pb.start();
+        process.getOutputStream().close();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        var result = process.waitFor();
+        if (result != 0) {
+            throw new RuntimeException(thing + " failed with exit code " + result);
+        }
+        return output;
+    }
+}
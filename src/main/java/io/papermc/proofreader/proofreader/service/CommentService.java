@@ -1,11 +1,19 @@
 package io.papermc.proofreader.proofreader.service;
 
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore.Artifact;
 import io.papermc.proofreader.proofreader.github.GithubService;
 import io.papermc.proofreader.proofreader.service.StateService.MainState;
 import io.papermc.proofreader.proofreader.service.StateService.State;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
@@ -14,15 +22,28 @@ import static io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
 public class CommentService {
 
     private static final Pattern checkboxPattern = Pattern.compile("(?m)^- \\[([ x])] (.+)$");
+    private static final Duration maxRetryDelay = Duration.ofMinutes(5);
     private final GithubService github;
     private final Config config;
+    private final TaskScheduler taskScheduler;
+    private final ArtifactStore artifacts;
 
-    public CommentService(GithubService github, Config config) {
+    private final Map<Long, CommentSync> syncs = new ConcurrentHashMap<>();
+
+    public CommentService(GithubService github, Config config, TaskScheduler taskScheduler, ArtifactStore artifacts) {
         this.github = github;
         this.config = config;
+        this.taskScheduler = taskScheduler;
+        this.artifacts = artifacts;
     }
 
-    void addOrUpdateProofReadingComment(State state) {
+    /**
+     * Renders the comment right away, but only hands it to github after the debounce window.
+     * Updates arriving in the meantime replace the pending body, so only the latest one is ever sent.
+     *
+     * @param onCreated called once the comment was first created and {@link State#commentId} is known
+     */
+    public void addOrUpdateProofReadingComment(State state, Consumer<State> onCreated) {
         if (state instanceof MainState) return;
 
         String comment;
@@ -32,31 +53,105 @@ public class CommentService {
             comment = createProofReadingComment(state);
         }
 
-        if (state.commentId != -1) {
-            github.updateComment(state.commentId, comment);
-        } else {
-            state.commentId = github.addComment(state.prNumber, comment);
+        var sync = syncs.computeIfAbsent(state.prNumber, _ -> new CommentSync());
+        synchronized (sync) {
+            sync.state = state;
+            sync.onCreated = onCreated;
+            sync.pending = comment;
+            if (!sync.scheduled) {
+                sync.scheduled = true;
+                schedule(sync, config.comments().debounce());
+            }
+        }
+    }
+
+    /**
+     * Drops what we keep around to sync the comment of a closed PR. An update that is still pending goes out anyway.
+     */
+    public void forget(long prNumber) {
+        syncs.remove(prNumber);
+    }
+
+    private void flush(CommentSync sync) {
+        String body;
+        State state;
+        Consumer<State> onCreated;
+        synchronized (sync) {
+            body = sync.pending;
+            state = sync.state;
+            onCreated = sync.onCreated;
+            sync.pending = null;
+            if (body == null || state == null || onCreated == null || body.equals(sync.posted)) {
+                sync.scheduled = false;
+                return;
+            }
+        }
+
+        try {
+            // only one flush per PR is ever in flight, so this can't race itself into two comments
+            if (state.commentId != -1) {
+                github.updateComment(state.commentId, body);
+            } else {
+                var commentId = github.addComment(state.prNumber, body);
+                synchronized (state) {
+                    state.commentId = commentId;
+                }
+                onCreated.accept(state);
+            }
+        } catch (Exception e) {
+            synchronized (sync) {
+                if (sync.pending == null) {
+                    sync.pending = body;
+                }
+                sync.failures++;
+                var delay = config.comments().debounce().multipliedBy(1L << Math.min(sync.failures, 10));
+                if (delay.compareTo(maxRetryDelay) > 0) {
+                    delay = maxRetryDelay;
+                }
+                System.out.println("Failed to sync comment for #" + state.prNumber + " (attempt " + sync.failures + "), retrying in " + delay.toSeconds() + "s: " + e.getMessage());
+                schedule(sync, delay);
+            }
+            return;
+        }
+
+        synchronized (sync) {
+            sync.posted = body;
+            sync.failures = 0;
+            if (sync.pending != null) {
+                schedule(sync, config.comments().debounce());
+            } else {
+                sync.scheduled = false;
+            }
         }
     }
 
+    private void schedule(CommentSync sync, Duration delay) {
+        taskScheduler.schedule(() -> flush(sync), Instant.now().plus(delay));
+    }
+
     private String createProofReadingComment(State state) {
         return """
                 ## Reviewer Tools
                 
                 Status: %s  \s
+                Patched source: %s  \s
                 
                 - [ ] Rebase PR
                 - [ ] Force Update
+                - [ ] Force Rebuild (skip cache)
                 
                 Browse patched branch: %s \s
                 Open patched branch in VSC: %s \s
                 Diff patched branch: %s  \s
+                Artifacts: %s  \s
                 
                 *This comment was generated by [ProofReader](https://github.com/PaperMC/ProofReader).*
                 """.formatted(state.status,
+                state.sourceStatus != null ? state.sourceStatus : "pending",
                 createdBrowseUrl(state),
                 createdOpenUrl(state),
-                createDiffsUrl(state));
+                createDiffsUrl(state),
+                createArtifactLinks(state));
     }
 
     private String createWelcomeMessage(State state) {
@@ -72,20 +167,35 @@ public class CommentService {
     }
 
     private String createdBrowseUrl(State state) {
-        if (state.completed) return "pending";
+        if (state.publishedSha == null) return "pending";
         return "https://github.com/" + config.targetRepo().withSlash() + "/tree/" + state.branch;
     }
 
     private String createdOpenUrl(State state) {
-        if (state.completed) return "pending";
+        if (state.publishedSha == null) return "pending";
         return "https://github.dev/" + config.targetRepo().withSlash() + "/tree/" + state.branch;
     }
 
     private String createDiffsUrl(State state) {
-        if (state.completed) return "pending";
+        if (state.publishedSha == null) return "pending";
         return "https://diffs.dev/?github_url=https%3A%2F%2Fgithub.com%2F" + config.targetRepo().withEscapedSlash() + "%2Fcompare%2Fmain..." + state.branch;
     }
 
+    private String createArtifactLinks(State state) {
+        var manifest = artifacts.manifest(state.buildName());
+        if (manifest == null || manifest.artifacts().isEmpty()) return "pending";
+        var links = new StringJoiner(", ");
+        for (Artifact artifact : manifest.artifacts()) {
+            links.add("[" + artifact.name() + "](" + artifacts.url(state.buildName(), artifact) + ")");
+        }
+        var builtSha = manifest.headSha();
+        if (builtSha != null && !builtSha.equals(state.headSha)) {
+            // the build for the current head is still running or failed, these are from an earlier one
+            return links + " (from " + builtSha.substring(0, Math.min(7, builtSha.length())) + ")";
+        }
+        return links.toString();
+    }
+
     public Set<String> newCheckedBoxes(String oldComment, String newComment) {
         var oldStatuses = checkboxStatus(oldComment);
         var newStatuses = checkboxStatus(newComment);
@@ -104,6 +214,24 @@ public class CommentService {
         return result;
     }
 
+    private static final class CommentSync {
+        private @Nullable State state;
+        private @Nullable Consumer<State> onCreated;
+        /**
+         * the latest rendered body that hasn't been sent yet
+         */
+        private @Nullable String pending;
+        /**
+         * the body github currently has, as far as we know
+         */
+        private @Nullable String posted;
+        /**
+         * whether a flush is scheduled or running
+         */
+        private boolean scheduled;
+        private int failures;
+    }
+
     private Map<String, Boolean> checkboxStatus(String input) {
         var result = new HashMap<String, Boolean>();
         var matcher = checkboxPattern.matcher(input);
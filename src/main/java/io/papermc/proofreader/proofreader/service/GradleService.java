@@ -0,0 +1,267 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs gradle for the builds.
+ * <p>
+ * All builds share one {@code GRADLE_USER_HOME}, so they share the dependency cache, the wrapper distributions and
+ * the daemon registry: a build finds an idle daemon left behind by an earlier one instead of starting a cold JVM, and
+ * daemons stick around for {@code daemonIdleTimeout} between builds. On top of the remote cache (if configured) every
+ * build uses a local build cache in {@code cacheDir}, which we keep under {@code cacheSize} by evicting the least
+ * recently used entries. An init script reports the outcome and duration of every task, which we log and turn into
+ * metrics.
+ */
+@Service
+public class GradleService {
+
+    private static final String INIT_SCRIPT = "proofreader.init.gradle";
+
+    private final Config config;
+    private final TaskExecutor taskExecutor;
+    private final Path userHome;
+    private final Path cacheDir;
+    private final Path reportDir;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong cacheBytes = new AtomicLong();
+
+    private final MeterRegistry registry;
+
+    public GradleService(Config config, TaskExecutor taskExecutor, MeterRegistry registry) {
+        this.config = config;
+        this.taskExecutor = taskExecutor;
+        this.registry = registry;
+        this.userHome = Path.of(config.gradle().userHome()).toAbsolutePath();
+        this.cacheDir = Path.of(config.gradle().cacheDir()).toAbsolutePath();
+        this.reportDir = userHome.resolve("proofreader-reports");
+
+        try {
+            Files.createDirectories(userHome);
+            Files.createDirectories(cacheDir);
+            Files.createDirectories(reportDir);
+            // user home properties win over the project's, so this is where the daemon settings go
+            Files.writeString(userHome.resolve("gradle.properties"), """
+                    org.gradle.daemon=true
+                    org.gradle.daemon.idletimeout=%d
+                    org.gradle.caching=true
+                    """.formatted(config.gradle().daemonIdleTimeout().toMillis()));
+            try (InputStream in = Objects.requireNonNull(GradleService.class.getResourceAsStream("/gradle/" + INIT_SCRIPT))) {
+                Files.copy(in, userHome.resolve(INIT_SCRIPT), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to set up gradle user home in " + userHome, e);
+        }
+
+        Gauge.builder("proofreader.gradle.cache.size", cacheBytes, AtomicLong::get)
+                .description("Size of the local build cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Creates the process for running {@code tasks} in {@code projectDir}, task outcomes are appended to {@code report}.
+     */
+    public ProcessBuilder newBuild(Path projectDir, Path report, String... tasks) {
+        var executable = System.getProperty("os.name").toLowerCase().contains("win") ? "gradlew.bat" : "./gradlew";
+        var command = new ArrayList<String>();
+        command.add(executable);
+        command.addAll(List.of(tasks));
+        command.add("--daemon");
+        command.add("--build-cache");
+        command.add("--init-script");
+        command.add(userHome.resolve(INIT_SCRIPT).toString());
+        command.add("-Pproofreader.buildCacheDir=" + cacheDir);
+        command.add("-Pproofreader.taskReport=" + report.toAbsolutePath());
+
+        var pb = new ProcessBuilder()
+                .command(command)
+                .directory(projectDir.toFile());
+        pb.environment().putAll(buildGradleEnv());
+        return pb;
+    }
+
+    public Path newReport() {
+        try {
+            return Files.createTempFile(reportDir, "tasks-", ".tsv");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create task report", e);
+        }
+    }
+
+    /**
+     * Reads and deletes the report, logs a summary and records the task metrics.
+     */
+    public TaskReport finishReport(String name, Path report) {
+        var tasks = new ArrayList<TaskResult>();
+        try {
+            if (Files.exists(report)) {
+                for (String line : Files.readAllLines(report)) {
+                    var parts = line.split("\t");
+                    if (parts.length != 3) continue;
+                    try {
+                        tasks.add(new TaskResult(parts[0], parts[1], Duration.ofMillis(Long.parseLong(parts[2]))));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                Files.delete(report);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read task report " + report + ": " + e.getMessage());
+        }
+
+        var taskReport = new TaskReport(tasks);
+        for (TaskResult task : tasks) {
+            Counter.builder("proofreader.gradle.tasks")
+                    .tag("outcome", task.outcome())
+                    .register(registry)
+                    .increment();
+            Timer.builder("proofreader.gradle.task.duration")
+                    .tag("outcome", task.outcome())
+                    .register(registry)
+                    .record(task.duration());
+        }
+
+        System.out.println("Gradle report for " + name + ": " + taskReport.summary());
+        tasks.stream()
+                .filter(task -> task.outcome().equals("EXECUTED"))
+                .sorted(Comparator.comparing(TaskResult::duration).reversed())
+                .limit(10)
+                .forEach(task -> System.out.println("  " + task.path() + " took " + task.duration().toMillis() + "ms"));
+        return taskReport;
+    }
+
+    /**
+     * Starts one daemon per build slot, so the first builds after a restart don't pay for cold JVMs.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        var mainDir = Path.of(config.workspaces().dir()).resolve("main");
+        if (!Files.isRegularFile(mainDir.resolve("gradlew"))) return;
+        for (int i = 0; i < config.builds().maxConcurrent(); i++) {
+            taskExecutor.execute(() -> {
+                var report = newReport();
+                try {
+                    var result = newBuild(mainDir, report, "help").inheritIO().start().waitFor();
+                    if (result != 0) {
+                        System.out.println("Warming up gradle daemon failed with exit code " + result);
+                    }
+                    Files.deleteIfExists(report);
+                } catch (Exception e) {
+                    System.out.println("Failed to warm up gradle daemon: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Gradle only expires cache entries by age, this keeps the cache under its size budget. Gradle touches entries
+     * when it uses them, so the modification time tells us which ones were used least recently.
+     */
+    @Scheduled(initialDelayString = "${proofreader.gradle.eviction-initial-delay:PT5M}", fixedDelayString = "${proofreader.gradle.eviction-interval:PT1H}")
+    public void evictCache() {
+        if (!evictionLock.tryLock()) return;
+        try {
+            var entries = new ArrayList<CacheEntry>();
+            long total = 0;
+            try (var files = Files.list(cacheDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    var name = file.getFileName().toString();
+                    if (name.endsWith(".lock") || name.equals("gc.properties") || !Files.isRegularFile(file)) continue;
+                    var entry = new CacheEntry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                    entries.add(entry);
+                    total += entry.size();
+                }
+            }
+
+            var budget = config.gradle().cacheSize().toBytes();
+            if (total > budget) {
+                // evict down to 90% so we don't end up doing this after every build
+                var target = budget / 10 * 9;
+                var before = total;
+                var evicted = 0;
+                entries.sort(Comparator.comparingLong(CacheEntry::lastUsed));
+                for (CacheEntry entry : entries) {
+                    if (total <= target) break;
+                    // an entry gradle is reading right now stays readable until it's closed, it's just a miss next time
+                    if (Files.deleteIfExists(entry.file())) {
+                        total -= entry.size();
+                        evicted++;
+                    }
+                }
+                System.out.println("Evicted " + evicted + " build cache entries, " + (before - total) / (1024 * 1024) + "MB freed");
+            }
+            cacheBytes.set(total);
+        } catch (IOException e) {
+            System.out.println("Failed to evict build cache: " + e.getMessage());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private Map<String, String> buildGradleEnv() {
+        var env = new HashMap<String, String>();
+        env.put("CI", "true");
+        env.put("GRADLE_USER_HOME", userHome.toString());
+
+        if (StringUtils.hasText(config.buildCachePassword()) && StringUtils.hasText(config.buildCacheUser())) {
+            env.put("ORG_GRADLE_PROJECT_paperBuildCacheEnabled", "true");
+            env.put("ORG_GRADLE_PROJECT_paperBuildCacheUsername", config.buildCacheUser());
+            env.put("ORG_GRADLE_PROJECT_paperBuildCachePassword", config.buildCachePassword());
+            env.put("ORG_GRADLE_PROJECT_paperBuildCachePush", "true");
+        }
+
+        return env;
+    }
+
+    public record TaskResult(String path, String outcome, Duration duration) {
+    }
+
+    public record TaskReport(List<TaskResult> tasks) {
+
+        public long count(String outcome) {
+            return tasks.stream().filter(task -> task.outcome().equals(outcome)).count();
+        }
+
+        /**
+         * @return share of the tasks that had to do work which were answered from the cache instead
+         */
+        public double cacheHitRate() {
+            var fromCache = count("FROM_CACHE");
+            var work = fromCache + count("EXECUTED");
+            return work == 0 ? 0 : (double) fromCache / work;
+        }
+
+        public String summary() {
+            return tasks.size() + " tasks, " + count("UP_TO_DATE") + " up to date, " + count("FROM_CACHE") + " from cache, "
+                   + count("EXECUTED") + " executed (cache hit rate " + Math.round(cacheHitRate() * 100) + "%)";
+        }
+    }
+
+    private record CacheEntry(Path file, long size, long lastUsed) {
+    }
+}
@@ -0,0 +1,343 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Moves the decompiled minecraft repos into the subdirectory they live in in the paper repo, so they can be merged
+ * into the PR branch.
+ * <p>
+ * This used to be a {@code git filter-repo} of both repos on every build. The vanilla commits are the same for almost
+ * every build though, so instead we keep a bare repo with the rewritten history around ({@code storage.historyDir})
+ * and remember which original commit became which rewritten one. Each build only rewrites the commits we haven't
+ * seen yet, by pointing {@code git fast-import} at the original trees with a path prefix, no file is touched. Since
+ * the rewritten commits are stable, pushing them only transfers what's new, too.
+ * <p>
+ * The java and resources histories have nothing in common but the repo, so they can be rewritten at the same time.
+ * Rewrites of the same history take turns.
+ * <p>
+ * Every rewrite leaves a pack behind, and a PR based on an older main brings back its own lineage of commits, which
+ * the next rewrite of the current main makes unreachable again. {@link #maintain} repacks the repo regularly and,
+ * once it grows past {@code storage.historyMaxSize}, prunes unreachable history older than
+ * {@code storage.historyPruneAge}. A build that needs it again just rewrites it again, with the same result.
+ */
+@Service
+public class HistoryService {
+
+    private static final String LOG_FORMAT = "%H%x00%T%x00%P%x00%an <%ae> %ad%x00%cn <%ce> %cd%x00%B%x01";
+
+    private final Config config;
+    private final Path historyDir;
+    private final Map<String, Map<String, String>> commitMaps = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    // rewrites share it, maintenance has the repo to itself
+    private final ReentrantReadWriteLock maintenanceLock = new ReentrantReadWriteLock();
+    private final AtomicLong historyBytes = new AtomicLong();
+
+    public HistoryService(Config config, MeterRegistry registry) {
+        this.config = config;
+        this.historyDir = Path.of(config.storage().historyDir()).toAbsolutePath();
+
+        Gauge.builder("proofreader.history.size", historyBytes, AtomicLong::get)
+                .description("Size of the rewritten history repo")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Rewrites the history of {@code main} in {@code sourceRepo} to live in {@code prefix}.
+     *
+     * @return the rewritten commit of the current {@code main}, it can be found via {@link #linkAlternates}
+     */
+    public String rewrite(BuildHandle handle, Path sourceRepo, String name, String prefix) {
+        var lock = locks.computeIfAbsent(name, _ -> new ReentrantLock());
+        maintenanceLock.readLock().lock();
+        lock.lock();
+        try {
+            ensureRepo();
+            var commitMap = commitMap(name);
+            var sourceRef = "refs/sources/" + name;
+            // FETCH_HEAD would be shared with the other history
+            run(handle, "History fetch", null, "git", "fetch", "--no-tags", "--no-write-fetch-head", sourceRepo.toAbsolutePath().toString(), "+main:" + sourceRef);
+
+            var log = new String(run(handle, "History log", null, "git", "log", "--reverse", "--topo-order", "--date=raw", "--format=" + LOG_FORMAT, sourceRef), StandardCharsets.UTF_8);
+            var commits = new ArrayList<Commit>();
+            String tip = null;
+            for (String record : log.split("\u0001")) {
+                record = record.stripLeading();
+                if (record.isEmpty()) continue;
+                var fields = record.split("\u0000", 6);
+                tip = fields[0];
+                if (!commitMap.containsKey(fields[0])) {
+                    commits.add(new Commit(fields[0], fields[1], fields[2].isBlank() ? List.of() : List.of(fields[2].split(" ")), fields[3], fields[4], fields[5]));
+                }
+            }
+            if (tip == null) {
+                throw new RuntimeException("No commits in " + sourceRepo);
+            }
+            if (commits.isEmpty()) {
+                System.out.println("History of " + name + " already rewritten, " + commitMap.size() + " commits cached");
+                return Objects.requireNonNull(commitMap.get(tip));
+            }
+
+            var marks = Files.createTempFile(historyDir, "marks-", ".txt");
+            try {
+                run(handle, "History rewrite", fastImportStream(name, prefix, commits, commitMap), "git", "fast-import", "--quiet", "--force", "--export-marks=" + marks);
+
+                var rewritten = new StringBuilder();
+                for (String line : Files.readAllLines(marks)) {
+                    // :<mark> <sha>, marks are the index in commits + 1
+                    var parts = line.split(" ");
+                    var original = commits.get(Integer.parseInt(parts[0].substring(1)) - 1).sha();
+                    commitMap.put(original, parts[1]);
+                    rewritten.append(original).append(' ').append(parts[1]).append('\n');
+                }
+                Files.writeString(mapFile(name), rewritten, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } finally {
+                Files.deleteIfExists(marks);
+            }
+            System.out.println("Rewrote " + commits.size() + " new commits of " + name + ", " + (commitMap.size() - commits.size()) + " were cached");
+
+            var result = commitMap.get(tip);
+            if (result == null) {
+                throw new RuntimeException("Rewriting " + name + " didn't produce " + tip);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to rewrite history of " + name, e);
+        } finally {
+            lock.unlock();
+            maintenanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Packs the objects of all rewrites together, and prunes unreachable history once the repo is over its budget.
+     */
+    @Scheduled(initialDelayString = "${proofreader.history.maintenance-initial-delay:PT30M}", fixedDelayString = "${proofreader.history.maintenance-interval:PT12H}")
+    public void maintain() {
+        if (!Files.isRegularFile(historyDir.resolve("HEAD"))) return;
+        maintenanceLock.writeLock().lock();
+        try {
+            var before = FileUtil.size(historyDir);
+            if (before > config.storage().historyMaxSize().toBytes()) {
+                // a build that finished its rewrite may still be merging or pushing those commits, so only what has
+                // been unreachable for a while goes
+                var expire = config.storage().historyPruneAge().toSeconds() + ".seconds.ago";
+                run(null, "History repack", null, "git", "repack", "-A", "-d", "-q", "--unpack-unreachable=" + expire);
+                run(null, "History prune", null, "git", "prune", "--expire=" + expire);
+                var dropped = dropPruned();
+                historyBytes.set(FileUtil.size(historyDir));
+                System.out.println("Pruned history, " + (before - historyBytes.get()) / (1024 * 1024) + "MB freed, " + dropped + " rewritten commits forgotten");
+            } else {
+                // fast-import writes a pack per rewrite, unreachable objects are kept
+                run(null, "History repack", null, "git", "repack", "-a", "-d", "-q", "--keep-unreachable");
+                historyBytes.set(FileUtil.size(historyDir));
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to maintain history repo: " + e.getMessage());
+        } finally {
+            maintenanceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the commits that were pruned from the commit maps, so they are rewritten again when needed.
+     *
+     * @return how many were removed
+     */
+    private int dropPruned() throws Exception {
+        var dropped = 0;
+        try (var files = Files.list(historyDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                var fileName = file.getFileName().toString();
+                if (!fileName.startsWith("proofreader-") || !fileName.endsWith(".map")) continue;
+                var name = fileName.substring("proofreader-".length(), fileName.length() - ".map".length());
+                var commitMap = commitMap(name);
+                if (commitMap.isEmpty()) continue;
+
+                var query = new StringBuilder();
+                commitMap.values().forEach(sha -> query.append(sha).append('\n'));
+                var missing = new HashSet<String>();
+                var output = new String(run(null, "History check", query.toString().getBytes(StandardCharsets.UTF_8), "git", "cat-file", "--batch-check"), StandardCharsets.UTF_8);
+                for (String line : output.split("\n")) {
+                    if (line.endsWith(" missing")) {
+                        missing.add(line.substring(0, line.indexOf(' ')));
+                    }
+                }
+                if (missing.isEmpty()) continue;
+
+                commitMap.values().removeIf(missing::contains);
+                var remaining = new StringBuilder();
+                commitMap.forEach((original, rewritten) -> remaining.append(original).append(' ').append(rewritten).append('\n'));
+                var tmp = file.resolveSibling(fileName + ".tmp");
+                Files.writeString(tmp, remaining);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                dropped += missing.size();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Lets the repo in {@code repoDir} read the rewritten commits without copying them over.
+     */
+    public void linkAlternates(Path repoDir) {
+        try {
+            var alternates = repoDir.resolve(".git").resolve("objects").resolve("info").resolve("alternates");
+            var objects = historyDir.resolve("objects").normalize().toString();
+            var lines = Files.exists(alternates) ? Files.readAllLines(alternates) : List.<String>of();
+            if (lines.contains(objects)) return;
+            Files.createDirectories(alternates.getParent());
+            Files.writeString(alternates, objects + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to link history into " + repoDir, e);
+        }
+    }
+
+    private byte[] fastImportStream(String name, String prefix, List<Commit> commits, Map<String, String> commitMap) {
+        var marks = new HashMap<String, String>();
+        var out = new ByteArrayOutputStream();
+        var branch = "refs/rewritten/" + name;
+        for (int i = 0; i < commits.size(); i++) {
+            var commit = commits.get(i);
+            var message = commit.message().getBytes(StandardCharsets.UTF_8);
+            var stream = new StringBuilder();
+            // without the reset, a root commit would get the previous commit on the branch as parent
+            stream.append("reset ").append(branch).append('\n');
+            stream.append("commit ").append(branch).append('\n');
+            stream.append("mark :").append(i + 1).append('\n');
+            stream.append("author ").append(commit.author()).append('\n');
+            stream.append("committer ").append(commit.committer()).append('\n');
+            stream.append("data ").append(message.length).append('\n');
+            out.writeBytes(stream.toString().getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(message);
+
+            stream.setLength(0);
+            stream.append('\n');
+            for (int p = 0; p < commit.parents().size(); p++) {
+                var parent = commit.parents().get(p);
+                var rewrittenParent = commitMap.containsKey(parent) ? commitMap.get(parent) : marks.get(parent);
+                if (rewrittenParent == null) {
+                    throw new RuntimeException("Parent " + parent + " of " + commit.sha() + " wasn't rewritten");
+                }
+                stream.append(p == 0 ? "from " : "merge ").append(rewrittenParent).append('\n');
+            }
+            stream.append("deleteall\n");
+            stream.append("M 040000 ").append(commit.tree()).append(' ').append(prefix).append('\n');
+            stream.append('\n');
+            out.writeBytes(stream.toString().getBytes(StandardCharsets.UTF_8));
+            marks.put(commit.sha(), ":" + (i + 1));
+        }
+        out.writeBytes("done\n".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private Map<String, String> commitMap(String name) throws IOException {
+        var commitMap = commitMaps.get(name);
+        if (commitMap == null) {
+            commitMap = new HashMap<>();
+            var file = mapFile(name);
+            if (Files.exists(file)) {
+                for (String line : Files.readAllLines(file)) {
+                    var parts = line.split(" ");
+                    // a torn last line just means that commit gets rewritten again, which produces the same result
+                    if (parts.length == 2 && parts[1].length() == parts[0].length()) {
+                        commitMap.put(parts[0], parts[1]);
+                    }
+                }
+            }
+            commitMaps.put(name, commitMap);
+        }
+        return commitMap;
+    }
+
+    private Path mapFile(String name) {
+        return historyDir.resolve("proofreader-" + name + ".map");
+    }
+
+    private synchronized void ensureRepo() throws Exception {
+        if (Files.isRegularFile(historyDir.resolve("HEAD"))) return;
+        System.out.println("Creating history repo in " + historyDir);
+        Files.createDirectories(historyDir);
+        run(null, "History init", null, "git", "init", "--bare");
+        // builds borrow objects from here, so gc must never prune anything they might still reference on its own,
+        // maintain() only prunes what has been unreachable for a while
+        run(null, "History config", null, "git", "config", "gc.pruneExpire", "never");
+        run(null, "History config", null, "git", "config", "gc.reflogExpireUnreachable", "never");
+    }
+
+    private byte[] run(@Nullable BuildHandle handle, String thing, byte @Nullable [] input, String... command) throws Exception {
+        if (handle != null) {
+            handle.checkCancelled();
+        }
+        var log = handle != null ? handle.log() : null;
+        var process = new ProcessBuilder()
+                .command(command)
+                .directory(historyDir.toFile())
+                .redirectError(log != null ? ProcessBuilder.Redirect.PIPE : ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (handle != null) {
+            handle.attach(process);
+        }
+        try {
+            var pump = log != null ? log.capture(thing, process.getErrorStream()) : null;
+            // cat-file answers while it reads, so the input is written from its own thread to not deadlock on a full pipe
+            var feeder = Thread.ofVirtual().name("history-stdin").start(() -> {
+                try (var stdin = process.getOutputStream()) {
+                    if (input != null) {
+                        stdin.write(input);
+                    }
+                } catch (IOException e) {
+                    // the process is gone, its exit code tells why
+                }
+            });
+            var output = process.getInputStream().readAllBytes();
+            var result = process.waitFor();
+            feeder.join();
+            if (pump != null) {
+                pump.join(Duration.ofSeconds(10));
+            }
+            if (handle != null) {
+                handle.checkCancelled();
+            }
+            if (result != 0) {
+                throw new RuntimeException(thing + " failed with exit code " + result);
+            }
+            return output;
+        } finally {
+            if (handle != null) {
+                handle.detach(process);
+            }
+        }
+    }
+
+    private record Commit(String sha, String tree, List<String> parents, String author, String committer, String message) {
+    }
+}
@@ -0,0 +1,125 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a long-lived bare mirror of the source repo around, so per-PR clones can borrow its objects via alternates
+ * and only need to fetch whatever the PR adds on top.
+ */
+@Service
+public class MirrorService {
+
+    private final Config config;
+    private final TaskExecutor taskExecutor;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final CloneTimings cold = new CloneTimings();
+    private final CloneTimings warm = new CloneTimings();
+
+    MirrorService(Config config, TaskExecutor taskExecutor) {
+        this.config = config;
+        this.taskExecutor = taskExecutor;
+    }
+
+    public void refreshAsync() {
+        if (!config.mirror().enabled()) return;
+        taskExecutor.execute(this::refresh);
+    }
+
+    @Scheduled(initialDelayString = "${proofreader.mirror.initial-delay:PT1M}", fixedDelayString = "${proofreader.mirror.refresh-interval:PT15M}")
+    public void refresh() {
+        if (!config.mirror().enabled()) return;
+        // a refresh that is already running will pick up whatever triggered us anyway
+        if (!lock.tryLock()) return;
+        try {
+            var dir = mirrorDir();
+            if (!isReady()) {
+                System.out.println("Creating mirror in " + dir);
+                Files.createDirectories(dir);
+                exec(dir, "Mirror init", "git", "init", "--bare");
+                // clones borrow objects from here, so we must never prune anything they might still reference
+                exec(dir, "Mirror config", "git", "config", "gc.pruneExpire", "never");
+                exec(dir, "Mirror config", "git", "config", "gc.reflogExpireUnreachable", "never");
+            }
+
+            var start = System.nanoTime();
+            exec(dir, "Mirror fetch", "git", "fetch", "--no-tags", "https://github.com/" + config.sourceRepo().withSlash() + ".git", "+refs/heads/*:refs/heads/*");
+            System.out.println("Refreshed mirror in " + Duration.ofNanos(System.nanoTime() - start).toMillis() + "ms");
+        } catch (Exception e) {
+            System.out.println("Failed to refresh mirror: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Points the freshly initialized repo in {@code repoDir} at the mirror's object store.
+     *
+     * @return whether the mirror was available, i.e. whether the following fetch will be a warm one
+     */
+    public boolean linkAlternates(Path repoDir) {
+        if (!config.mirror().enabled() || !isReady()) return false;
+        try {
+            var alternates = repoDir.resolve(".git").resolve("objects").resolve("info").resolve("alternates");
+            Files.createDirectories(alternates.getParent());
+            Files.writeString(alternates, mirrorDir().resolve("objects").toAbsolutePath().normalize() + "\n");
+            return true;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to link mirror into " + repoDir, e);
+        }
+    }
+
+    public void recordClone(boolean warmClone, Duration duration) {
+        var timings = warmClone ? warm : cold;
+        timings.record(duration);
+        System.out.println("Clone took " + duration.toMillis() + "ms (" + (warmClone ? "warm" : "cold") + ")"
+                           + " | avg cold " + cold + " | avg warm " + warm);
+    }
+
+    private boolean isReady() {
+        return Files.isRegularFile(mirrorDir().resolve("HEAD")) && Files.isDirectory(mirrorDir().resolve("refs").resolve("heads"));
+    }
+
+    private Path mirrorDir() {
+        return Path.of(config.mirror().dir());
+    }
+
+    private void exec(Path dir, String thing, String... command) throws Exception {
+        System.out.println("Executing " + String.join(" ", command) + " in " + dir);
+        var result = new ProcessBuilder()
+                .command(command)
+                .directory(dir.toFile())
+                .inheritIO()
+                .start()
+                .waitFor();
+        if (result != 0) {
+            throw new RuntimeException(thing + " failed with exit code " + result);
+        }
+    }
+
+    static class CloneTimings {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+
+        void record(Duration duration) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public String toString() {
+            var n = count.get();
+            return n == 0 ? "n/a" : (totalMillis.get() / n) + "ms over " + n;
+        }
+    }
+}
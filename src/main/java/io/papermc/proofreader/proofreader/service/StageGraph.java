@@ -0,0 +1,176 @@
+package io.papermc.proofreader.proofreader.service;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Joiner;
+
+/**
+ * A pipeline as a graph of stages, each starts as soon as the stages it depends on are done. Stages that don't depend
+ * on each other run side by side, at most {@code parallelism} at a time.
+ * <p>
+ * A failed stage doesn't stop the others, only the stages that depend on it are skipped. Everything that can still
+ * run does, and {@link #run} only returns once nothing runs anymore, so no stage is left touching the build dir
+ * behind our back. Dependencies have to be added before the stages that depend on them, which keeps the graph free
+ * of cycles.
+ * <p>
+ * The stages are subtasks of a {@link StructuredTaskScope} owned by the thread calling {@link #run}, each on a virtual
+ * thread of its own. They mostly wait for git and gradle, so they're cheap, and none of them outlives the build.
+ * The graph is built and run by one thread, only that thread starts stages.
+ */
+public class StageGraph {
+
+    private final String name;
+    private final int parallelism;
+    private final List<Stage<?>> stages = new ArrayList<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final BlockingQueue<Finished> finished = new LinkedBlockingQueue<>();
+    private int running;
+    private boolean started;
+
+    /**
+     * @param name        prefix of the threads the stages run on
+     * @param parallelism how many stages may run at the same time
+     */
+    public StageGraph(String name, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        }
+        this.name = name;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param after the stages that have to succeed before this one can start
+     */
+    public <T> Stage<T> add(String stage, Callable<T> action, Stage<?>... after) {
+        if (started) {
+            throw new IllegalStateException("Stages can't be added to " + name + " once it runs");
+        }
+        for (Stage<?> dependency : after) {
+            if (!stages.contains(dependency)) {
+                throw new IllegalArgumentException(stage + " depends on " + dependency.name + ", which isn't part of " + name);
+            }
+        }
+        var added = new Stage<>(stage, action, List.of(after));
+        stages.add(added);
+        return added;
+    }
+
+    /**
+     * Runs all stages and waits for them. If the calling thread is interrupted, the running stages are interrupted,
+     * too, and waited for.
+     *
+     * @throws Exception the failure of the first stage that failed, the ones after it are suppressed
+     */
+    @SuppressWarnings("preview")
+    public void run() throws Exception {
+        if (started) {
+            throw new IllegalStateException(name + " already ran");
+        }
+        started = true;
+        try (var scope = StructuredTaskScope.open(Joiner.<Void>awaitAll(), config -> config.withName(name))) {
+            dispatch(scope);
+            while (running > 0) {
+                var done = finished.take();
+                running--;
+                if (done.failure() != null) {
+                    failures.add(done.failure() instanceof Exception ? done.failure() : new RuntimeException(done.failure()));
+                    done.stage().status = Status.FAILED;
+                    System.out.println("Stage " + done.stage().name + " of " + name + " failed: " + done.failure().getMessage());
+                } else {
+                    done.stage().status = Status.SUCCEEDED;
+                }
+                dispatch(scope);
+            }
+            scope.join();
+        }
+
+        if (failures.isEmpty()) return;
+        var failure = failures.getFirst();
+        failures.stream().skip(1).filter(other -> other != failure).forEach(failure::addSuppressed);
+        if (failure instanceof Exception exception) {
+            throw exception;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    /**
+     * Starts whatever is ready, stages added earlier go first, and skips what can't run anymore.
+     */
+    @SuppressWarnings("preview")
+    private void dispatch(StructuredTaskScope<Void, ?> scope) {
+        for (Stage<?> stage : stages) {
+            if (stage.status != Status.WAITING) continue;
+            if (stage.after.stream().anyMatch(dependency -> dependency.status == Status.FAILED || dependency.status == Status.SKIPPED)) {
+                stage.status = Status.SKIPPED;
+                System.out.println("Skipping " + stage.name + " of " + name + ", a stage it depends on failed");
+            } else if (running < parallelism && stage.after.stream().allMatch(dependency -> dependency.status == Status.SUCCEEDED)) {
+                stage.status = Status.RUNNING;
+                running++;
+                scope.fork(() -> {
+                    Thread.currentThread().setName(name + "-" + stage.name);
+                    finished.add(new Finished(stage, stage.call()));
+                    return null;
+                });
+            }
+        }
+    }
+
+    private record Finished(Stage<?> stage, @Nullable Throwable failure) {
+    }
+
+    private enum Status {
+        WAITING, RUNNING, SUCCEEDED, FAILED, SKIPPED
+    }
+
+    public static final class Stage<T> {
+        private final String name;
+        private final Callable<T> action;
+        private final List<Stage<?>> after;
+        // only touched by the thread running the graph
+        private Status status = Status.WAITING;
+        // written before the stage counts as succeeded, read by the stages after it
+        private @Nullable T result;
+        private volatile boolean succeeded;
+
+        private Stage(String name, Callable<T> action, List<Stage<?>> after) {
+            this.name = name;
+            this.action = action;
+            this.after = after;
+        }
+
+        /**
+         * @return what the stage produced, only for the stages that depend on it
+         */
+        public T result() {
+            if (!succeeded) {
+                throw new IllegalStateException(name + " hasn't produced a result");
+            }
+            // null only for stages that don't produce anything
+            return result;
+        }
+
+        /**
+         * @return whether the stage succeeded, for looking at stages we don't depend on
+         */
+        public boolean isDone() {
+            return succeeded;
+        }
+
+        private @Nullable Throwable call() {
+            try {
+                result = action.call();
+                succeeded = true;
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        }
+    }
+}
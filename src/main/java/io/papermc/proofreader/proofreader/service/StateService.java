@@ -1,33 +1,176 @@
 package io.papermc.proofreader.proofreader.service;
 
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.cluster.ClusterClient;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import jakarta.annotation.PreDestroy;
 import org.jspecify.annotations.Nullable;
 import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
 
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class StateService {
 
-    // TODO persist?
-    private final Map<Long, State> stateMap = new HashMap<>();
+    private final Map<Long, State> stateMap = new ConcurrentHashMap<>();
+    private final MainState main;
 
     private final CommentService commentService;
+    private final ClusterClient cluster;
+    private final StateStore store;
 
-    public StateService(CommentService commentService) {
+    public StateService(CommentService commentService, ClusterClient cluster, Config config, ObjectMapper objectMapper) {
         this.commentService = commentService;
+        this.cluster = cluster;
+        this.store = new StateStore(Path.of(config.storage().stateDir()), objectMapper);
+
+        var start = System.nanoTime();
+        MainState recoveredMain = null;
+        for (StoredState stored : store.recovered()) {
+            var state = State.fromStored(stored);
+            if (state instanceof MainState mainState) {
+                recoveredMain = mainState;
+            } else {
+                stateMap.put(stored.prNumber(), state);
+            }
+        }
+        this.main = recoveredMain != null ? recoveredMain : new MainState();
+        System.out.println("Recovered " + stateMap.size() + " states in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /**
+     * @return the state of the main branch, its head is the main every PR build gets compared to
+     */
+    public MainState main() {
+        return main;
+    }
+
+    /**
+     * @return the states of all PRs, main is not included
+     */
+    public Collection<State> all() {
+        return List.copyOf(stateMap.values());
     }
 
     public State getState(long number) {
         return stateMap.computeIfAbsent(number, State::new);
     }
 
+    /**
+     * @return the state of the PR, if we know it
+     */
+    public @Nullable State findState(long number) {
+        return stateMap.get(number);
+    }
+
+    /**
+     * Forgets a closed PR. What's left of it goes to the store's archive, later updates of this state (a build that was
+     * still winding down) are dropped. Should the PR be reopened it starts over with a fresh state.
+     */
+    public void archive(State state) {
+        if (state instanceof MainState) return;
+        CompletableFuture<Void> archived;
+        synchronized (state) {
+            if (state.archived) return;
+            state.archived = true;
+            // still under the lock, so an update that got past its archived check is journaled before the tombstone
+            // and can't put the state back into the map after it was removed
+            stateMap.remove(state.prNumber, state);
+            archived = store.archive(state.toStored());
+        }
+        commentService.forget(state.prNumber);
+        archived.join();
+        System.out.println("archived state: " + state);
+    }
+
     public void updateState(State state) {
-        commentService.addOrUpdateProofReadingComment(state);
-        stateMap.put(state.prNumber, state);
+        StoredState stored;
+        CompletableFuture<Void> written;
+        // webhooks and the build thread may be touching the same PR
+        synchronized (state) {
+            if (state.archived) return;
+            if (!cluster.isWorker()) {
+                commentService.addOrUpdateProofReadingComment(state, this::persist);
+            }
+            stored = state.toStored();
+            if (!(state instanceof MainState)) {
+                stateMap.put(state.prNumber, state);
+            }
+            // the store writes in the order things were queued, so queueing under the lock keeps the journal in the
+            // order of the changes, the fsync is waited for outside of it
+            written = store.put(stored);
+        }
+        if (cluster.isWorker()) {
+            // the coordinator owns the comment
+            cluster.report(stored);
+        }
+        written.join();
         System.out.println("updated state: " + state);
     }
 
+    private void persist(State state) {
+        CompletableFuture<Void> written;
+        synchronized (state) {
+            if (state.archived) return;
+            written = store.put(state.toStored());
+        }
+        written.join();
+    }
+
+    @PreDestroy
+    void close() {
+        store.close();
+    }
+
+    private static final long MAIN_NUMBER = -1;
+
+    /**
+     * Takes over what a worker found out while running a job for this PR.
+     */
+    public void updateFromWorker(StoredState stored) {
+        var state = stored.prNumber() == MAIN_NUMBER ? main : findState(stored.prNumber());
+        if (state == null) {
+            // closed while the worker was still busy with it, reports must not bring it back
+            System.out.println("Dropping worker report for unknown or closed #" + stored.prNumber());
+            return;
+        }
+        synchronized (state) {
+            if (state.archived) return;
+            state.status = stored.status();
+            state.headSha = stored.headSha();
+            state.baseSha = stored.baseSha();
+            state.result = stored.result();
+            state.sourceStatus = stored.sourceStatus();
+            state.publishedSha = stored.publishedSha();
+        }
+        updateState(state);
+    }
+
+    /**
+     * Sets up the state of a PR on a worker, for running a job the coordinator handed out. The build dir is ours.
+     */
+    public State updateFromCoordinator(StoredState stored) {
+        var state = stored.prNumber() == MAIN_NUMBER ? main : getState(stored.prNumber());
+        synchronized (state) {
+            state.status = stored.status();
+            state.firstTimer = stored.firstTimer();
+            state.approved = stored.approved();
+            state.commentId = stored.commentId();
+            state.headSha = stored.headSha();
+            state.baseSha = stored.baseSha();
+            state.result = stored.result();
+            state.sourceStatus = stored.sourceStatus();
+            state.publishedSha = stored.publishedSha();
+        }
+        return state;
+    }
+
     public static class State {
         public final long prNumber;
         public final String branch;
@@ -36,7 +179,27 @@ public class StateService {
         public boolean approved = false;
         public long commentId = -1;
         public @Nullable String buildDir;
-        public boolean completed;
+        public @Nullable String headSha;
+        /**
+         * the main commit the last build merged, or found conflicting
+         */
+        public @Nullable String baseSha;
+        /**
+         * what the last successful build produced, for republishing it instead of building the same thing again
+         */
+        public @Nullable BuildResult result;
+        /**
+         * status of the source tier, which publishes the patched branch while the build is still running
+         */
+        public @Nullable String sourceStatus;
+        /**
+         * the commit last pushed as the patched branch, until there is one the links to it lead nowhere
+         */
+        public @Nullable String publishedSha;
+        /**
+         * the PR was closed and its state archived, see {@link StateService#archive}
+         */
+        public boolean archived;
 
         public State(long prNumber) {
             this.prNumber = prNumber;
@@ -47,6 +210,36 @@ public class StateService {
             }
         }
 
+        /**
+         * @return name of this PR's build dir and artifacts, {@code main} or {@code pr-<number>}
+         */
+        public String buildName() {
+            return branch.replace('/', '-');
+        }
+
+        public StoredState toStored() {
+            return new StoredState(prNumber, status, firstTimer, approved, commentId, buildDir, headSha, baseSha, result, sourceStatus, publishedSha);
+        }
+
+        static State fromStored(StoredState stored) {
+            var state = stored.prNumber() == MAIN_NUMBER ? new MainState() : new State(stored.prNumber());
+            state.status = stored.status();
+            state.firstTimer = stored.firstTimer();
+            state.approved = stored.approved();
+            state.commentId = stored.commentId();
+            state.buildDir = stored.buildDir();
+            state.headSha = stored.headSha();
+            state.baseSha = stored.baseSha();
+            state.result = stored.result();
+            state.sourceStatus = stored.sourceStatus();
+            state.publishedSha = stored.publishedSha();
+            if (state.publishedSha == null && state.result != null) {
+                // stored before the source tier reported on its own
+                state.publishedSha = state.result.publishedSha();
+            }
+            return state;
+        }
+
         @Override
         public String toString() {
             return "State{" +
@@ -56,14 +249,26 @@ public class StateService {
                    ", firstTimer=" + firstTimer +
                    ", approved=" + approved +
                    ", commentId=" + commentId +
+                   ", headSha='" + headSha + '\'' +
+                   ", baseSha='" + baseSha + '\'' +
                    ", buildDir='" + buildDir + '\'' +
                    '}';
         }
     }
 
+    /**
+     * @param headSha      the commit that was built
+     * @param baseSha      the main commit the build started from, also if the PR conflicted with it
+     * @param pipeline     the pipeline version that built it
+     * @param publishedSha the commit that was pushed as the patched branch
+     * @param summary      gradle task summary, for the status
+     */
+    public record BuildResult(String headSha, String baseSha, int pipeline, String publishedSha, String summary) {
+    }
+
     public static class MainState extends State {
         public MainState() {
-            super(-1);
+            super(MAIN_NUMBER);
         }
     }
 }
@@ -0,0 +1,272 @@
+package io.papermc.proofreader.proofreader.service;
+
+import org.jspecify.annotations.Nullable;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only journal of {@link StoredState} records plus a periodically compacted snapshot.
+ * <p>
+ * All writes go through a single writer thread that drains whatever queued up while the previous batch was being
+ * fsynced, so concurrent callers share one fsync (group commit). On startup the snapshot is loaded and the journal
+ * replayed on top of it, a torn record at the end of the journal (crash mid-write) is dropped.
+ * <p>
+ * States of closed PRs are {@link #archive archived}: the journal gets a tombstone, and a compact {@link ArchivedState}
+ * is appended to {@code archive.jsonl}, which is only ever written.
+ */
+public class StateStore implements AutoCloseable {
+
+    private static final int MAX_BATCH = 512;
+    private static final String TOMBSTONE_PREFIX = "{\"archived\":";
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path archiveFile;
+    private final ObjectMapper objectMapper;
+    private final int compactThreshold;
+
+    private final Map<Long, StoredState> recovered;
+    private final Map<Long, StoredState> live = new HashMap<>();
+    private final LinkedBlockingQueue<Write> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final FileChannel journal;
+    private final FileChannel archive;
+    private int journalEntries;
+    private volatile boolean closed;
+
+    public StateStore(Path dir, ObjectMapper objectMapper) {
+        this(dir, objectMapper, 10_000);
+    }
+
+    public StateStore(Path dir, ObjectMapper objectMapper, int compactThreshold) {
+        this.snapshotFile = dir.resolve("snapshot.jsonl");
+        this.journalFile = dir.resolve("journal.jsonl");
+        this.archiveFile = dir.resolve("archive.jsonl");
+        this.objectMapper = objectMapper;
+        this.compactThreshold = compactThreshold;
+        try {
+            Files.createDirectories(dir);
+            this.recovered = new HashMap<>();
+            read(snapshotFile, recovered);
+            this.journalEntries = read(journalFile, recovered);
+            this.live.putAll(recovered);
+            this.journal = FileChannel.open(journalFile, CREATE, READ, WRITE, APPEND);
+            this.archive = FileChannel.open(archiveFile, CREATE, WRITE, APPEND);
+            terminateTornRecord();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open state store in " + dir, e);
+        }
+
+        this.writer = Thread.ofPlatform().name("state-store-writer").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * @return the states as they were on disk when the store was opened
+     */
+    public Collection<StoredState> recovered() {
+        return recovered.values();
+    }
+
+    /**
+     * Queues the record for writing, the returned future completes once it has been fsynced.
+     */
+    public CompletableFuture<Void> put(StoredState state) {
+        return enqueue(new Write(state, false, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues the removal of the PR, the returned future completes once it and its archived record have been fsynced.
+     */
+    public CompletableFuture<Void> archive(StoredState state) {
+        return enqueue(new Write(state, true, new CompletableFuture<>()));
+    }
+
+    private CompletableFuture<Void> enqueue(Write write) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("State store is closed"));
+        }
+        pending.add(write);
+        return write.done();
+    }
+
+    private void writeLoop() {
+        var batch = new ArrayList<Write>(MAX_BATCH);
+        while (!closed || !pending.isEmpty()) {
+            try {
+                var first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+                batch.forEach(write -> write.done().complete(null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.out.println("Failed to persist " + batch.size() + " states: " + e.getMessage());
+                batch.forEach(write -> write.done().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Write> batch) throws IOException {
+        // only the latest version of each PR in this batch matters
+        var latest = new LinkedHashMap<Long, Write>();
+        for (Write write : batch) {
+            latest.put(write.state().prNumber(), write);
+        }
+
+        var out = new ByteArrayOutputStream(latest.size() * 256);
+        var archived = new ByteArrayOutputStream();
+        for (Write write : latest.values()) {
+            var state = write.state();
+            if (write.archive()) {
+                out.write((TOMBSTONE_PREFIX + state.prNumber() + "}").getBytes(StandardCharsets.UTF_8));
+                archived.write(objectMapper.writeValueAsBytes(new ArchivedState(state.prNumber(), state.headSha(), state.publishedSha(), state.status(), Instant.now())));
+                archived.write('\n');
+            } else {
+                out.write(objectMapper.writeValueAsBytes(state));
+            }
+            out.write('\n');
+        }
+        if (archived.size() > 0) {
+            // before the tombstones, a crash in between leaves a duplicate in the archive rather than losing the PR
+            writeFully(archive, archived.toByteArray());
+            archive.force(false);
+        }
+        writeFully(journal, out.toByteArray());
+        journal.force(false);
+
+        for (Write write : latest.values()) {
+            if (write.archive()) {
+                live.remove(write.state().prNumber());
+            } else {
+                live.put(write.state().prNumber(), write.state());
+            }
+        }
+        journalEntries += latest.size();
+        if (journalEntries >= compactThreshold && journalEntries >= live.size() * 2) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        var tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            var out = new ByteArrayOutputStream(live.size() * 256);
+            for (StoredState state : live.values()) {
+                out.write(objectMapper.writeValueAsBytes(state));
+                out.write('\n');
+            }
+            writeFully(channel, out.toByteArray());
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // everything in the journal is in the snapshot now, a crash before this truncate just replays it again
+        journal.truncate(0);
+        journal.force(true);
+        journalEntries = 0;
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void terminateTornRecord() throws IOException {
+        var size = journal.size();
+        if (size == 0) return;
+        var last = ByteBuffer.allocate(1);
+        journal.read(last, size - 1);
+        if (last.get(0) != '\n') {
+            journal.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            journal.force(false);
+        }
+    }
+
+    /**
+     * Applies the records in {@code file} to {@code states}.
+     *
+     * @return the number of records read
+     */
+    private int read(Path file, Map<Long, StoredState> states) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        var records = 0;
+        try (var reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    if (line.startsWith(TOMBSTONE_PREFIX)) {
+                        states.remove(Long.parseLong(line.substring(TOMBSTONE_PREFIX.length(), line.length() - 1)));
+                    } else {
+                        var state = objectMapper.readValue(line, StoredState.class);
+                        states.put(state.prNumber(), state);
+                    }
+                    records++;
+                } catch (Exception e) {
+                    System.out.println("Skipping corrupt state record in " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            journal.close();
+            archive.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close state store", e);
+        }
+    }
+
+    public record StoredState(long prNumber, String status, boolean firstTimer, boolean approved, long commentId,
+                              @Nullable String buildDir, @Nullable String headSha, @Nullable String baseSha,
+                              StateService.@Nullable BuildResult result, @Nullable String sourceStatus,
+                              @Nullable String publishedSha) {
+    }
+
+    /**
+     * What's left of a closed PR.
+     */
+    public record ArchivedState(long prNumber, @Nullable String headSha, @Nullable String publishedSha, String status,
+                                Instant archivedAt) {
+    }
+
+    private record Write(StoredState state, boolean archive, CompletableFuture<Void> done) {
+    }
+}
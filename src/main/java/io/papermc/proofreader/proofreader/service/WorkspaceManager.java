@@ -0,0 +1,252 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import org.jspecify.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the build dirs ({@code workspaces.dir}) under their disk budget. Every checkout with its decompiled sources
+ * and gradle outputs takes gigabytes, so they can't all stay around, but a warm one makes the next build of its PR
+ * incremental.
+ * <p>
+ * Builds {@link #acquire} their workspace and {@link #release} it when they're done, which measures it and, if all
+ * workspaces together take more than {@code maxSize}, deletes the least recently used ones. Workspaces in use, that of
+ * main and those of PRs with a build in the queue are never deleted. The modification time of a workspace dir records
+ * when it was last used, so the order survives restarts.
+ */
+@Service
+public class WorkspaceManager {
+
+    private static final Pattern prPattern = Pattern.compile("pr-(\\d+)");
+    private static final String TRASH_PREFIX = ".trash-";
+
+    private final Path dir;
+    private final long budget;
+    private final BuildScheduler scheduler;
+    private final Counter evictions;
+
+    private final Map<String, Workspace> workspaces = new HashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private boolean scanned = false;
+
+    public WorkspaceManager(Config config, BuildScheduler scheduler, MeterRegistry registry) {
+        this.dir = Path.of(config.workspaces().dir());
+        this.budget = config.workspaces().maxSize().toBytes();
+        this.scheduler = scheduler;
+        this.evictions = Counter.builder("proofreader.workspaces.evicted")
+                .description("Build dirs deleted to stay within the disk budget")
+                .register(registry);
+        Gauge.builder("proofreader.workspaces.size", usedBytes, AtomicLong::get)
+                .description("Disk space taken up by build dirs")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("proofreader.workspaces.count", this, WorkspaceManager::count)
+                .description("Build dirs on disk")
+                .register(registry);
+    }
+
+    /**
+     * Marks the workspace of {@code state} as in use and points {@link State#buildDir} at it. It may not exist yet.
+     */
+    public synchronized Path acquire(State state) {
+        var name = state.buildName();
+        var path = dir.resolve(name);
+        var workspace = workspaces.computeIfAbsent(name, _ -> new Workspace(path));
+        workspace.users++;
+        workspace.lastUsed = System.currentTimeMillis();
+        state.buildDir = path.toString();
+        return path;
+    }
+
+    /**
+     * Records how big the workspace of {@code state} got and makes room if we're over budget.
+     */
+    public void release(State state) {
+        var name = state.buildName();
+        Workspace workspace;
+        synchronized (this) {
+            workspace = workspaces.get(name);
+            if (workspace == null) return;
+            workspace.users--;
+            workspace.lastUsed = System.currentTimeMillis();
+        }
+        // measuring a checkout takes a moment, don't hold up the other builds meanwhile. Nobody deletes it while we're
+        // at it, only the build that just finished would touch it
+        long size = 0;
+        if (Files.isDirectory(workspace.path)) {
+            try {
+                size = FileUtil.size(workspace.path);
+                Files.setLastModifiedTime(workspace.path, FileTime.fromMillis(workspace.lastUsed));
+            } catch (Exception e) {
+                System.out.println("Failed to measure workspace " + workspace.path + ": " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            workspace.size = size;
+            updateUsage();
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the workspace of a PR that won't be built again. One that is still in use is left to the eviction.
+     */
+    public void discard(State state) {
+        Path trash;
+        synchronized (this) {
+            var name = state.buildName();
+            var workspace = workspaces.get(name);
+            if (workspace != null && workspace.users > 0) return;
+            workspaces.remove(name);
+            updateUsage();
+            trash = moveToTrash(name, dir.resolve(name));
+        }
+        if (trash != null) {
+            FileUtil.deleteRecursively(trash);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${proofreader.workspaces.eviction-initial-delay:PT2M}", fixedDelayString = "${proofreader.workspaces.eviction-interval:PT1H}")
+    public void evict() {
+        if (!evictionLock.tryLock()) return;
+        try {
+            var trash = new ArrayList<Path>();
+            if (!scanned) {
+                scan(trash);
+                scanned = true;
+            }
+            synchronized (this) {
+                long total = updateUsage();
+                if (total > budget) {
+                    // evict down to 90% so we don't end up doing this after every build
+                    var target = budget / 10 * 9;
+                    var candidates = new ArrayList<Map.Entry<String, Workspace>>();
+                    for (var entry : workspaces.entrySet()) {
+                        if (!isPinned(entry.getKey(), entry.getValue())) {
+                            candidates.add(entry);
+                        }
+                    }
+                    candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+                    for (var entry : candidates) {
+                        if (total <= target) break;
+                        var workspace = entry.getValue();
+                        workspaces.remove(entry.getKey());
+                        total -= workspace.size;
+                        // out of the way right away, a build that starts in the meantime gets a fresh dir
+                        var moved = moveToTrash(entry.getKey(), workspace.path);
+                        if (moved == null) continue;
+                        trash.add(moved);
+                        evictions.increment();
+                        System.out.println("Evicting workspace " + entry.getKey() + ", " + workspace.size / (1024 * 1024) + "MB, last used " + (System.currentTimeMillis() - workspace.lastUsed) / 60_000 + " minutes ago");
+                    }
+                    if (total > budget) {
+                        System.out.println("Workspaces still take " + total / (1024 * 1024) + "MB, everything else is in use");
+                    }
+                }
+                usedBytes.set(total);
+            }
+            for (Path path : trash) {
+                try {
+                    FileUtil.deleteRecursively(path);
+                } catch (Exception e) {
+                    System.out.println("Failed to delete " + path + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public synchronized int count() {
+        return workspaces.size();
+    }
+
+    /**
+     * Picks up workspaces left by an earlier run. Dirs in the trash from an eviction that didn't finish and the
+     * {@code -minecraft} dirs older versions moved the decompiled sources to are deleted.
+     */
+    private void scan(List<Path> trash) {
+        if (!Files.isDirectory(dir)) return;
+        try (var entries = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) entries::iterator) {
+                var name = path.getFileName().toString();
+                if (name.startsWith(TRASH_PREFIX) || name.endsWith("-minecraft")) {
+                    trash.add(path);
+                    continue;
+                }
+                if (!Files.isDirectory(path)) continue;
+                // measured without holding the lock, builds keep starting meanwhile
+                var workspace = new Workspace(path);
+                workspace.lastUsed = Files.getLastModifiedTime(path).toMillis();
+                workspace.size = FileUtil.size(path);
+                synchronized (this) {
+                    var existing = workspaces.putIfAbsent(name, workspace);
+                    if (existing != null && existing.size == 0) {
+                        // acquired before we got to it, it's only measured when released otherwise
+                        existing.size = workspace.size;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to scan workspaces in " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isPinned(String name, Workspace workspace) {
+        if (workspace.users > 0 || name.equals("main")) return true;
+        // about to be built, keep it warm
+        var matcher = prPattern.matcher(name);
+        return matcher.matches() && scheduler.isScheduled(Long.parseLong(matcher.group(1)));
+    }
+
+    private long updateUsage() {
+        long total = 0;
+        for (Workspace workspace : workspaces.values()) {
+            total += workspace.size;
+        }
+        usedBytes.set(total);
+        return total;
+    }
+
+    private @Nullable Path moveToTrash(String name, Path path) {
+        if (!Files.exists(path)) return null;
+        var target = dir.resolve(TRASH_PREFIX + name + "-" + System.nanoTime());
+        try {
+            return Files.move(path, target);
+        } catch (IOException e) {
+            System.out.println("Failed to move workspace " + name + " out of the way: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static class Workspace {
+        private final Path path;
+        private int users;
+        private long lastUsed;
+        private long size;
+
+        Workspace(Path path) {
+            this.path = path;
+        }
+    }
+}
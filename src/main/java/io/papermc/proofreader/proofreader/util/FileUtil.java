@@ -1,47 +1,110 @@
 package io.papermc.proofreader.proofreader.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.util.Comparator;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
+/**
+ * Measuring and deleting the big trees the builds leave behind (the decompiled sources alone are tens of thousands of
+ * files, plus their git object stores).
+ * <p>
+ * Directories are processed in parallel, each one streamed via a {@link java.nio.file.DirectoryStream}, so we only
+ * ever hold one task per directory in memory and never the whole listing.
+ */
 public class FileUtil {
+
+    // file system calls mostly wait on the disk, so more threads than cores pays off
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.clamp(Runtime.getRuntime().availableProcessors() * 2L, 4, 16));
+
     public static void deleteRecursively(Path dir) {
-        try (var walk = Files.walk(dir)) {
-            walk
-                    // children first
-                    .sorted(Comparator.reverseOrder())
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (Exception e) {
-                            throw new RuntimeException("Failed to delete " + path, e);
-                        }
-                    });
+        try {
+            if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                Files.delete(dir);
+                return;
+            }
+            pool.invoke(new DeleteTask(dir));
         } catch (Exception e) {
             throw new RuntimeException("Failed delete " + dir + " recursively", e);
         }
     }
 
-    public static void moveDirectory(Path sourceDir, Path targetDir) {
+    /**
+     * @return the bytes taken up by the files in {@code dir}, links are not followed
+     */
+    public static long size(Path dir) {
         try {
-            Files.createDirectories(targetDir);
-            try (var walk = Files.walk(sourceDir)) {
-                walk.forEach(source -> {
-                    try {
-                        var relative = sourceDir.relativize(source);
-                        var target = targetDir.resolve(relative);
-                        if (Files.isDirectory(source)) {
-                            Files.createDirectories(target);
+            if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                return Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+            }
+            return pool.invoke(new SizeTask(dir));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to measure " + dir, e);
+        }
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private final Path dir;
+
+        DeleteTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            var subdirs = new ArrayList<DeleteTask>();
+            try {
+                try (var entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        if (Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+                            subdirs.add((DeleteTask) new DeleteTask(entry).fork());
                         } else {
-                            Files.copy(source, target);
+                            Files.delete(entry);
                         }
-                    } catch (Exception e) {
-                        throw new RuntimeException("Failed to move file " + source, e);
                     }
-                });
+                }
+                // children first
+                subdirs.forEach(DeleteTask::join);
+                Files.delete(dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to delete " + dir, e);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to move " + sourceDir, e);
+        }
+    }
+
+    private static class SizeTask extends RecursiveTask<Long> {
+        private final Path dir;
+
+        SizeTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Long compute() {
+            var subdirs = new ArrayList<SizeTask>();
+            long size = 0;
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    var attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirs.add((SizeTask) new SizeTask(entry).fork());
+                    } else {
+                        size += attributes.size();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to measure " + dir, e);
+            }
+            for (SizeTask subdir : subdirs) {
+                size += subdir.join();
+            }
+            return size;
         }
     }
 }
@@ -0,0 +1,93 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ArtifactStoreTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    Config config;
+
+    ArtifactStore store;
+
+    @BeforeEach
+    void setUp() {
+        when(config.artifacts()).thenReturn(new Config.Artifacts(dir.resolve("artifacts").toString(), DataSize.ofKilobytes(3), Duration.ofDays(30)));
+        when(config.baseUrl()).thenReturn("https://proofreader.example.com");
+        store = new ArtifactStore(config, JsonMapper.builder().build());
+    }
+
+    @Test
+    void testIdenticalArtifactsAreStoredOnce() throws Exception {
+        var api = write("pr-1/paper-api-1.21.jar", 1024, 1);
+        store.store("pr-1", "aaaaaaa1", List.of(api, write("pr-1/paper-paperclip-1.21.jar", 512, 2)));
+        store.store("pr-2", "bbbbbbb2", List.of(write("pr-2/paper-api-1.21.jar", 1024, 1), write("pr-2/paper-paperclip-1.21.jar", 512, 3)));
+
+        assertEquals(3, countBlobs());
+        var found = store.find("pr-2", "paper-api-1.21.jar");
+        assertNotNull(found);
+        assertEquals(-1, Files.mismatch(api, found.file()));
+        assertEquals("https://proofreader.example.com/artifacts/pr-2/paper-api-1.21.jar", store.url("pr-2", found.artifact()));
+    }
+
+    @Test
+    void testOldestBuildsAreEvictedOverBudget() throws Exception {
+        store.store("main", "aaaaaaa1", List.of(write("main/paper-api.jar", 1024, 1)));
+        store.store("pr-1", "bbbbbbb2", List.of(write("pr-1/paper-api.jar", 1024, 2)));
+        store.store("pr-2", "ccccccc3", List.of(write("pr-2/paper-api.jar", 1024, 3)));
+        // 4k in a 3k budget, pr-1 is the oldest that isn't main
+        store.store("pr-3", "ddddddd4", List.of(write("pr-3/paper-api.jar", 1024, 4)));
+
+        assertNotNull(store.manifest("main"));
+        assertNull(store.manifest("pr-1"));
+        assertNotNull(store.manifest("pr-2"));
+        assertNotNull(store.manifest("pr-3"));
+        assertEquals(3, countBlobs());
+    }
+
+    @Test
+    void testUnknownArtifacts() {
+        assertNull(store.find("pr-404", "paper-api.jar"));
+        assertNull(store.find("../etc", "passwd"));
+    }
+
+    private Path write(String name, int size, int seed) throws Exception {
+        var file = dir.resolve("builds").resolve(name);
+        Files.createDirectories(file.getParent());
+        var content = new byte[size];
+        new Random(seed).nextBytes(content);
+        Files.write(file, content);
+        return file;
+    }
+
+    private long countBlobs() throws Exception {
+        try (var blobs = Files.walk(dir.resolve("artifacts").resolve("blobs"))) {
+            return blobs.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.logs.BuildLogService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BuildLogServiceTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    Config config;
+
+    BuildLogService logs;
+
+    @BeforeEach
+    void setUp() {
+        when(config.logs()).thenReturn(new Config.Logs(dir.toString(), DataSize.ofKilobytes(100), 2));
+        logs = new BuildLogService(config);
+    }
+
+    @Test
+    void testLogIsCompressedWhenDone() throws Exception {
+        var log = logs.open("pr-1");
+        assertEquals(log, logs.live("pr-1"));
+        log.capture("Gradle build", stream("> Task :compileJava\nBUILD SUCCESSFUL\n")).join();
+        log.close();
+
+        assertNull(logs.live("pr-1"));
+        var file = logs.latest("pr-1");
+        assertNotNull(file);
+        assertTrue(file.getFileName().toString().endsWith(".log.gz"));
+        assertEquals("> Gradle build\n> Task :compileJava\nBUILD SUCCESSFUL\n", read(file));
+    }
+
+    @Test
+    void testOutputBeyondMaxSizeKeepsTheTail() throws Exception {
+        var log = logs.open("pr-1");
+        var output = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            output.append("line ").append(i).append('\n');
+        }
+        log.capture("Gradle build", stream(output + "* What went wrong:\nExecution failed for task ':paper-server:compileJava'.\n\n* Try:\n> Run with --stacktrace\n")).join();
+        log.close();
+
+        var content = read(logs.latest("pr-1"));
+        assertTrue(content.length() < 100 * 1024 + 70 * 1024, "log is bounded");
+        assertTrue(content.startsWith("> Gradle build\nline 0\n"));
+        assertTrue(content.contains(" bytes omitted ...]\n"));
+        assertTrue(content.endsWith("> Run with --stacktrace\n"), "the end of the output is kept");
+        assertEquals("Execution failed for task ':paper-server:compileJava'.", log.excerpt());
+    }
+
+    @Test
+    void testExcerptFallsBackToLastLines() throws Exception {
+        var log = logs.open("pr-1");
+        var output = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            output.append("line ").append(i).append('\n');
+        }
+        log.capture("Git fetch", stream(output.toString())).join();
+        log.close();
+
+        var excerpt = log.excerpt();
+        assertTrue(excerpt.startsWith("line 80\n"));
+        assertTrue(excerpt.endsWith("line 99"));
+    }
+
+    @Test
+    void testOldLogsAreDeleted() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            var log = logs.open("main");
+            log.note("build " + i);
+            log.close();
+            Thread.sleep(2);
+        }
+
+        try (var files = Files.list(dir.resolve("main"))) {
+            assertEquals(2, files.count());
+        }
+        assertEquals("> build 3\n", read(logs.latest("main")));
+        assertNull(logs.latest("../main"));
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        try (var in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package io.papermc.proofreader.proofreader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config.Cluster.Role;
+import io.papermc.proofreader.proofreader.service.BuildHandle;
+import io.papermc.proofreader.proofreader.service.BuildScheduler;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.JobSpec;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Kind;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Priority;
+import io.papermc.proofreader.proofreader.service.StateService;
+import io.papermc.proofreader.proofreader.service.StateService.MainState;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BuildSchedulerTest {
+
+    static final JobSpec BUILD = new JobSpec(Kind.BUILD, true, null);
+
+    @Mock
+    StateService states;
+    @Mock
+    Config config;
+
+    List<Runnable> executed = new ArrayList<>();
+    List<String> ran = new ArrayList<>();
+    BuildScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        when(config.builds()).thenReturn(new Config.Builds(1, true, 3));
+        when(config.cluster()).thenReturn(cluster(Role.STANDALONE, Duration.ofMinutes(1)));
+        scheduler = new BuildScheduler(states, config, executed::add, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void testHighPriorityJumpsTheQueue() {
+        scheduler.submit(new State(1), Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        scheduler.submit(new State(2), Priority.NORMAL, BUILD, handle -> ran.add("pr-2"));
+        scheduler.submit(new MainState(), Priority.HIGH, BUILD, handle -> ran.add("main"));
+
+        assertEquals(1, executed.size());
+        assertEquals(2, scheduler.queueDepth());
+
+        runNext();
+        runNext();
+        runNext();
+
+        assertEquals(List.of("pr-1", "main", "pr-2"), ran);
+        assertEquals(0, scheduler.activeBuilds());
+    }
+
+    @Test
+    void testSamePrOnlyQueuedOnce() {
+        var running = new State(1);
+        var pr2 = new State(2);
+        scheduler.submit(running, Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        scheduler.submit(pr2, Priority.NORMAL, BUILD, handle -> ran.add("pr-2 old"));
+        scheduler.submit(new State(3), Priority.NORMAL, BUILD, handle -> ran.add("pr-3"));
+        scheduler.submit(pr2, Priority.NORMAL, BUILD, handle -> ran.add("pr-2 new"));
+
+        assertEquals(2, scheduler.queueDepth());
+        assertEquals("Queued (position 1 of 2)", pr2.status);
+
+        runNext();
+        runNext();
+        runNext();
+
+        assertEquals(List.of("pr-1", "pr-2 new", "pr-3"), ran);
+    }
+
+    @Test
+    void testNewerHeadCancelsRunningBuild() {
+        var state = new State(1);
+        var handles = new ArrayList<BuildHandle>();
+        state.headSha = "aaa";
+        scheduler.submit(state, Priority.NORMAL, BUILD, handle -> {
+            handles.add(handle);
+            // the newer commit arrives while we are still building
+            state.headSha = "bbb";
+            scheduler.submit(state, Priority.NORMAL, BUILD, next -> ran.add("bbb"));
+            state.headSha = "ccc";
+            scheduler.submit(state, Priority.NORMAL, BUILD, next -> ran.add("ccc"));
+            ran.add("aaa");
+        });
+
+        runNext();
+
+        assertTrue(handles.getFirst().isCancelled());
+        assertEquals(1, executed.size());
+        runNext();
+        assertEquals(List.of("aaa", "ccc"), ran);
+    }
+
+    @Test
+    void testSameHeadIsCoalesced() {
+        var state = new State(1);
+        state.headSha = "aaa";
+        scheduler.submit(state, Priority.NORMAL, BUILD, handle -> {
+            scheduler.submit(state, Priority.NORMAL, BUILD, next -> ran.add("redelivered"));
+            ran.add("aaa");
+        });
+
+        runNext();
+
+        assertTrue(executed.isEmpty());
+        assertEquals(List.of("aaa"), ran);
+    }
+
+    @Test
+    void testForcedRebuildLeavesStatusOfRunningBuild() {
+        var state = new State(1);
+        state.headSha = "aaa";
+        scheduler.submit(state, Priority.NORMAL, BUILD, handle -> {
+            state.status = "Running build";
+            scheduler.submit(state, Priority.HIGH, BUILD, next -> ran.add("forced"));
+            assertEquals("Running build", state.status);
+            ran.add("aaa");
+        });
+
+        runNext();
+        runNext();
+
+        assertEquals(List.of("aaa", "forced"), ran);
+    }
+
+    @Test
+    void testIsScheduledWhileQueuedOrRunning() {
+        scheduler.submit(new State(1), Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        scheduler.submit(new State(2), Priority.LOW, BUILD, handle -> ran.add("pr-2"));
+
+        assertTrue(scheduler.isScheduled(1));
+        assertTrue(scheduler.isScheduled(2));
+        assertFalse(scheduler.isScheduled(3));
+
+        runNext();
+        assertFalse(scheduler.isScheduled(1));
+        assertTrue(scheduler.isScheduled(2));
+        runNext();
+        assertFalse(scheduler.isScheduled(2));
+    }
+
+    @Test
+    void testJobsThatFailToStartAreRequeued() {
+        when(config.builds()).thenReturn(new Config.Builds(2, true, 3));
+        var rejectFirst = new boolean[]{true};
+        scheduler = new BuildScheduler(states, config, task -> {
+            if (rejectFirst[0]) {
+                rejectFirst[0] = false;
+                throw new IllegalStateException("Executor is full");
+            }
+            executed.add(task);
+        }, new SimpleMeterRegistry());
+
+        scheduler.submit(new State(1), Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        assertEquals(0, scheduler.activeBuilds(), "the slot is given back");
+        assertEquals(1, scheduler.queueDepth());
+        assertTrue(scheduler.isScheduled(1));
+
+        scheduler.submit(new State(2), Priority.NORMAL, BUILD, handle -> ran.add("pr-2"));
+        assertEquals(2, scheduler.activeBuilds());
+        runNext();
+        runNext();
+        assertEquals(List.of("pr-1", "pr-2"), ran);
+        assertEquals(0, scheduler.activeBuilds());
+    }
+
+    @Test
+    void testCoordinatorHandsOutJobsAndRequeuesThoseOfDeadWorkers() {
+        var timeout = Duration.ofMinutes(1);
+        when(config.cluster()).thenReturn(cluster(Role.COORDINATOR, timeout));
+        scheduler = new BuildScheduler(states, config, executed::add, new SimpleMeterRegistry());
+        var pr1 = new State(1);
+        pr1.headSha = "aaa";
+        scheduler.submit(pr1, Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        scheduler.submit(new State(2), Priority.LOW, BUILD, handle -> ran.add("pr-2"));
+        assertTrue(executed.isEmpty(), "nothing runs on the coordinator");
+
+        var first = scheduler.claim("worker-a");
+        assertNotNull(first);
+        assertEquals(1, first.state().prNumber);
+        assertTrue(scheduler.holds("worker-a", first.id()));
+        assertEquals(List.of(), scheduler.heartbeat("worker-a", List.of(first.id())));
+
+        // a newer commit cancels the claimed job, its worker learns about it with the next heartbeat
+        pr1.headSha = "bbb";
+        scheduler.submit(pr1, Priority.NORMAL, BUILD, handle -> ran.add("pr-1"));
+        assertEquals(List.of(first.id()), scheduler.heartbeat("worker-a", List.of(first.id())));
+
+        // the newer commit waits until the cancelled job is done with the build dir
+        var second = scheduler.claim("worker-b");
+        assertNotNull(second);
+        assertEquals(2, second.state().prNumber);
+        assertNull(scheduler.claim("worker-b"));
+        var workerBSeen = System.nanoTime();
+        scheduler.complete("worker-a", first.id());
+        var third = scheduler.claim("worker-a");
+        assertNotNull(third);
+        assertEquals(1, third.state().prNumber);
+
+        // worker-b stops sending heartbeats, worker-a sends one more
+        var workerASeen = System.nanoTime();
+        while (workerASeen == workerBSeen) {
+            workerASeen = System.nanoTime();
+        }
+        scheduler.heartbeat("worker-a", List.of(third.id()));
+        // exactly the timeout after worker-a's heartbeat, so it's still alive and worker-b isn't
+        scheduler.reapDeadWorkers(workerASeen + timeout.toNanos());
+        assertFalse(scheduler.holds("worker-b", second.id()));
+        assertTrue(scheduler.holds("worker-a", third.id()));
+        var requeued = scheduler.claim("worker-a");
+        assertNotNull(requeued);
+        assertEquals(2, requeued.state().prNumber);
+        assertEquals(List.of(second.id()), scheduler.heartbeat("worker-b", List.of(second.id())));
+        assertTrue(ran.isEmpty());
+    }
+
+    private static Config.Cluster cluster(Role role, Duration heartbeatTimeout) {
+        return new Config.Cluster(role, "http://localhost:8080", null, null, Duration.ofSeconds(10), heartbeatTimeout, Duration.ofSeconds(2));
+    }
+
+    private void runNext() {
+        executed.removeFirst().run();
+    }
+}
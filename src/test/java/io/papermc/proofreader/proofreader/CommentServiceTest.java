@@ -1,16 +1,35 @@
 package io.papermc.proofreader.proofreader;
 
 import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
 import io.papermc.proofreader.proofreader.github.GithubService;
 import io.papermc.proofreader.proofreader.service.CommentService;
+import io.papermc.proofreader.proofreader.service.StateService.State;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class CommentServiceTest {
@@ -19,12 +38,92 @@ class CommentServiceTest {
     GithubService github;
     @Mock
     Config config;
+    @Mock
+    TaskScheduler taskScheduler;
+    @Mock
+    ArtifactStore artifacts;
 
     CommentService comments;
+    /**
+     * what was handed to the scheduler, run by hand
+     */
+    List<Scheduled> scheduled = new ArrayList<>();
+    List<State> created = new ArrayList<>();
 
     @BeforeEach
     void setUp() {
-        comments = new CommentService(github, config);
+        lenient().when(config.comments()).thenReturn(new Config.Comments(Duration.ofSeconds(2)));
+        lenient().when(taskScheduler.schedule(any(Runnable.class), any(Instant.class))).thenAnswer(invocation -> {
+            scheduled.add(new Scheduled(invocation.getArgument(0), Duration.between(Instant.now(), invocation.getArgument(1))));
+            return null;
+        });
+        comments = new CommentService(github, config, taskScheduler, artifacts);
+    }
+
+    @Test
+    void testUpdatesWithinDebounceAreCollapsed() {
+        when(github.addComment(anyLong(), anyString())).thenReturn(42L);
+        var state = new State(1);
+        for (String status : List.of("Queued", "Cloning repository", "Applying patches")) {
+            state.status = status;
+            comments.addOrUpdateProofReadingComment(state, created::add);
+        }
+
+        assertEquals(1, scheduled.size());
+        runNext();
+
+        verify(github, times(1)).addComment(anyLong(), contains("Status: Applying patches"));
+        assertEquals(42, state.commentId);
+        assertEquals(List.of(state), created);
+        assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    void testUnchangedBodyIsNotSent() {
+        var state = new State(1);
+        state.commentId = 42;
+        state.status = "Running build";
+        comments.addOrUpdateProofReadingComment(state, created::add);
+        runNext();
+        comments.addOrUpdateProofReadingComment(state, created::add);
+        runNext();
+
+        verify(github, times(1)).updateComment(anyLong(), anyString());
+        verify(github, never()).addComment(anyLong(), anyString());
+    }
+
+    @Test
+    void testFailedSyncIsRetriedWithCappedBackoff() {
+        var state = new State(1);
+        state.commentId = 42;
+        doThrow(new RuntimeException("502 Bad Gateway")).when(github).updateComment(anyLong(), anyString());
+        comments.addOrUpdateProofReadingComment(state, created::add);
+        assertEquals(2, Math.round(scheduled.getFirst().delay().toMillis() / 1000.0));
+
+        var delays = new ArrayList<Long>();
+        for (int i = 0; i < 9; i++) {
+            runNext();
+            delays.add(Math.round(scheduled.getFirst().delay().toMillis() / 1000.0));
+        }
+
+        // 2s doubled with every failure, but never more than 5 minutes
+        assertEquals(List.of(4L, 8L, 16L, 32L, 64L, 128L, 256L, 300L, 300L), delays);
+        verify(github, times(9)).updateComment(eq(42L), anyString());
+    }
+
+    @Test
+    void testForgottenPrStartsOver() {
+        var state = new State(1);
+        state.commentId = 42;
+        comments.addOrUpdateProofReadingComment(state, created::add);
+        runNext();
+
+        comments.forget(1);
+        // nothing is known about what github has anymore, so the same body is sent again
+        comments.addOrUpdateProofReadingComment(state, created::add);
+        assertEquals(1, scheduled.size());
+        runNext();
+        verify(github, times(2)).updateComment(anyLong(), anyString());
     }
 
     @Test
@@ -59,4 +158,11 @@ class CommentServiceTest {
 
         assertTrue(result.isEmpty());
     }
+
+    private void runNext() {
+        scheduled.removeFirst().task().run();
+    }
+
+    private record Scheduled(Runnable task, Duration delay) {
+    }
 }
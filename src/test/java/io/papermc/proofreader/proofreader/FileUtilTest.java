@@ -0,0 +1,51 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.util.FileUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileUtilTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testDeleteDoesNotFollowLinks() throws Exception {
+        var outside = Files.createDirectories(dir.resolve("outside"));
+        Files.writeString(outside.resolve("keep"), "keep");
+        var tree = createTree(dir.resolve("tree"));
+        Files.createSymbolicLink(tree.resolve("java/link"), outside);
+
+        FileUtil.deleteRecursively(tree);
+
+        assertFalse(Files.exists(tree));
+        assertTrue(Files.exists(outside.resolve("keep")));
+    }
+
+    @Test
+    void testSizeDoesNotFollowLinks() throws Exception {
+        var outside = Files.createDirectories(dir.resolve("outside"));
+        Files.writeString(outside.resolve("big"), "x".repeat(1000));
+        var tree = createTree(dir.resolve("tree"));
+        Files.createSymbolicLink(tree.resolve("java/link"), outside);
+
+        var treeSize = FileUtil.size(tree);
+        assertTrue(treeSize >= 2 && treeSize < 1000, "the link counts, not what it points to");
+        assertEquals(treeSize + 1000, FileUtil.size(dir));
+    }
+
+    private static Path createTree(Path root) throws Exception {
+        Files.createDirectories(root.resolve("java/net/minecraft"));
+        Files.createDirectories(root.resolve("resources/data"));
+        Files.writeString(root.resolve("java/net/minecraft/A.java"), "a");
+        Files.writeString(root.resolve("resources/data/b.json"), "b");
+        return root;
+    }
+}
@@ -0,0 +1,88 @@
+package io.papermc.proofreader.proofreader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.service.GradleService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GradleServiceTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    Config config;
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    GradleService gradle;
+
+    @BeforeEach
+    void setUp() {
+        when(config.gradle()).thenReturn(new Config.Gradle(dir.resolve("home").toString(), dir.resolve("cache").toString(), DataSize.ofKilobytes(10), Duration.ofHours(3)));
+        gradle = new GradleService(config, Runnable::run, registry);
+    }
+
+    @Test
+    void testUserHomeIsSetUp() {
+        assertTrue(Files.exists(dir.resolve("home").resolve("proofreader.init.gradle")));
+        assertTrue(Files.exists(dir.resolve("home").resolve("gradle.properties")));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws Exception {
+        var cache = dir.resolve("cache");
+        for (int i = 0; i < 5; i++) {
+            var entry = cache.resolve("entry-" + i);
+            Files.write(entry, new byte[4 * 1024]);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(1_000_000L * (i + 1)));
+        }
+        Files.writeString(cache.resolve("build-cache-1.lock"), "");
+
+        gradle.evictCache();
+
+        // 20k in a 10k budget, evicted down to 9k
+        assertFalse(Files.exists(cache.resolve("entry-0")));
+        assertFalse(Files.exists(cache.resolve("entry-1")));
+        assertFalse(Files.exists(cache.resolve("entry-2")));
+        assertTrue(Files.exists(cache.resolve("entry-3")));
+        assertTrue(Files.exists(cache.resolve("entry-4")));
+        assertTrue(Files.exists(cache.resolve("build-cache-1.lock")));
+        assertEquals(8 * 1024, registry.get("proofreader.gradle.cache.size").gauge().value());
+    }
+
+    @Test
+    void testTaskReport() throws Exception {
+        var report = gradle.newReport();
+        Files.writeString(report, """
+                :paper-api:compileJava\tFROM_CACHE\t120
+                :paper-server:compileJava\tEXECUTED\t45000
+                :paper-server:applyPatches\tUP_TO_DATE\t10
+                :paper-server:processResources\tSKIPPED\t0
+                broken line
+                """);
+
+        var taskReport = gradle.finishReport("pr-1", report);
+
+        assertEquals(4, taskReport.tasks().size());
+        assertEquals(0.5, taskReport.cacheHitRate());
+        assertEquals(1, taskReport.count("UP_TO_DATE"));
+        assertFalse(Files.exists(report));
+        assertEquals(1, registry.get("proofreader.gradle.tasks").tag("outcome", "EXECUTED").counter().count());
+    }
+}
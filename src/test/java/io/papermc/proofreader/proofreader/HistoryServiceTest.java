@@ -0,0 +1,128 @@
+package io.papermc.proofreader.proofreader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.service.BuildHandle;
+import io.papermc.proofreader.proofreader.service.HistoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HistoryServiceTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    Config config;
+
+    HistoryService history;
+    Path source;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(config.storage()).thenReturn(storage(DataSize.ofGigabytes(10)));
+        history = new HistoryService(config, new SimpleMeterRegistry());
+        source = Files.createDirectories(dir.resolve("java"));
+        git(source, "init", "-b", "main");
+        commit("A.java", "Vanilla");
+        commit("B.java", "Paper patches");
+    }
+
+    @Test
+    void testRewritesIntoSubdirectory() throws Exception {
+        var rewritten = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+
+        var historyDir = dir.resolve("history.git");
+        assertEquals("paper-server/src/minecraft/java/A.java\npaper-server/src/minecraft/java/B.java", git(historyDir, "ls-tree", "-r", "--name-only", rewritten));
+        assertEquals("Paper patches", git(historyDir, "log", "-1", "--format=%s", rewritten));
+        assertEquals("Vanilla", git(historyDir, "log", "-1", "--format=%s", rewritten + "~1"));
+    }
+
+    @Test
+    void testOnlyNewCommitsAreRewritten() throws Exception {
+        var first = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+        assertEquals(first, history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java"));
+
+        commit("C.java", "Feature patch");
+        var second = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+        assertNotEquals(first, second);
+        assertEquals(first, git(dir.resolve("history.git"), "rev-parse", second + "~1"));
+
+        // a fresh service picks the map up from disk
+        var reopened = new HistoryService(config, new SimpleMeterRegistry());
+        assertEquals(second, reopened.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java"));
+    }
+
+    @Test
+    void testMaintenanceKeepsUnreachableHistoryWithinBudget() throws Exception {
+        var first = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+        startOver();
+        history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+
+        history.maintain();
+        git(dir.resolve("history.git"), "cat-file", "-e", first);
+    }
+
+    @Test
+    void testMaintenancePrunesUnreachableHistoryOverBudget() throws Exception {
+        when(config.storage()).thenReturn(storage(DataSize.ofBytes(0)));
+        var first = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+        // a PR based on a main with a different minecraft history
+        startOver();
+        var second = history.rewrite(new BuildHandle(), source, "java", "paper-server/src/minecraft/java");
+
+        history.maintain();
+        var historyDir = dir.resolve("history.git");
+        assertThrows(IllegalStateException.class, () -> git(historyDir, "cat-file", "-e", first));
+        git(historyDir, "cat-file", "-e", second);
+        var map = Files.readString(historyDir.resolve("proofreader-java.map"));
+        assertFalse(map.contains(first), "pruned commits are forgotten");
+        assertTrue(map.contains(second));
+    }
+
+    private Config.Storage storage(DataSize historyMaxSize) {
+        return new Config.Storage(dir.resolve("state").toString(), dir.resolve("history.git").toString(), historyMaxSize, Duration.ZERO);
+    }
+
+    private void startOver() throws Exception {
+        git(source, "checkout", "-q", "--orphan", "other");
+        git(source, "rm", "-rfq", ".");
+        commit("C.java", "Other vanilla");
+        git(source, "branch", "-M", "main");
+    }
+
+    private void commit(String file, String message) throws Exception {
+        Files.writeString(source.resolve(file), file);
+        git(source, "add", file);
+        git(source, "-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "-m", message, "--date=1700000000 +0000");
+    }
+
+    private static String git(Path dir, String... args) throws Exception {
+        var command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        var process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " failed: " + output);
+        }
+        return output;
+    }
+}
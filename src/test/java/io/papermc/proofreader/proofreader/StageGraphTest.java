@@ -0,0 +1,73 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.service.StageGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageGraphTest {
+
+    @Test
+    void testIndependentStagesRunSideBySide() throws Exception {
+        var graph = new StageGraph("test", 2);
+        // neither can finish without the other having started
+        var started = new CountDownLatch(2);
+        var java = graph.add("rewriteJava", () -> {
+            started.countDown();
+            return started.await(10, TimeUnit.SECONDS) ? "java" : "timed out";
+        });
+        var resources = graph.add("rewriteResources", () -> {
+            started.countDown();
+            return started.await(10, TimeUnit.SECONDS) ? "resources" : "timed out";
+        });
+        var merge = graph.add("merge", () -> java.result() + "+" + resources.result(), java, resources);
+
+        graph.run();
+        assertEquals("java+resources", merge.result());
+    }
+
+    @Test
+    void testParallelismIsLimited() throws Exception {
+        var graph = new StageGraph("test", 2);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        for (int i = 0; i < 6; i++) {
+            graph.add("stage-" + i, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return null;
+            });
+        }
+
+        graph.run();
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void testFailureOnlySkipsDependents() {
+        var graph = new StageGraph("test", 1);
+        var ran = new CopyOnWriteArrayList<String>();
+        var rewrite = graph.add("rewrite", () -> {
+            throw new IllegalStateException("History rewrite failed");
+        });
+        var merge = graph.add("merge", () -> ran.add("merge"), rewrite);
+        graph.add("push", () -> ran.add("push"), merge);
+        var gradle = graph.add("gradleBuild", () -> ran.add("gradleBuild"));
+        graph.add("artifacts", () -> ran.add("artifacts"), gradle);
+
+        var e = assertThrows(IllegalStateException.class, graph::run);
+        assertEquals("History rewrite failed", e.getMessage());
+        assertEquals(List.of("gradleBuild", "artifacts"), ran);
+        assertTrue(gradle.isDone());
+        assertThrows(IllegalStateException.class, merge::result);
+    }
+}
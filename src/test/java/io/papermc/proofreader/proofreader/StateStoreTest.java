@@ -0,0 +1,116 @@
+package io.papermc.proofreader.proofreader;
+
+import io.papermc.proofreader.proofreader.service.StateService.BuildResult;
+import io.papermc.proofreader.proofreader.service.StateStore;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateStoreTest {
+
+    @TempDir
+    Path dir;
+
+    JsonMapper objectMapper = JsonMapper.builder().build();
+
+    @Test
+    void testRecoversLatestState() {
+        try (var store = new StateStore(dir, objectMapper)) {
+            store.put(state(1, "Pending", -1)).join();
+            store.put(state(2, "Pending", -1)).join();
+            store.put(state(1, "Build completed successfully", 42)).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            var recovered = store.recovered().stream().sorted(Comparator.comparingLong(StoredState::prNumber)).toList();
+            assertEquals(2, recovered.size());
+            assertEquals(state(1, "Build completed successfully", 42), recovered.get(0));
+            assertEquals(state(2, "Pending", -1), recovered.get(1));
+        }
+    }
+
+    @Test
+    void testRecoversBuildResult() {
+        var result = new BuildResult("aaaaaaa1", "bbbbbbb2", 1, "ccccccc3", "12 tasks, 75% from cache");
+        var stored = new StoredState(1, "Build completed successfully", false, true, 42, "work/builds/pr-1", "aaaaaaa1", "bbbbbbb2", result, "Published", "ccccccc3");
+        try (var store = new StateStore(dir, objectMapper)) {
+            store.put(stored).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertEquals(List.of(stored), List.copyOf(store.recovered()));
+        }
+    }
+
+    @Test
+    void testCompactionKeepsEverything() {
+        try (var store = new StateStore(dir, objectMapper, 10)) {
+            var writes = IntStream.range(0, 100)
+                    .mapToObj(i -> store.put(state(i % 5, "Status " + i, i)))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(writes).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper, 10)) {
+            var recovered = store.recovered().stream().sorted(Comparator.comparingLong(StoredState::prNumber)).toList();
+            assertEquals(5, recovered.size());
+            assertEquals(state(4, "Status 99", 99), recovered.get(4));
+        }
+    }
+
+    @Test
+    void testTornRecordIsDropped() throws Exception {
+        try (var store = new StateStore(dir, objectMapper)) {
+            store.put(state(1, "Pending", 7)).join();
+        }
+        Files.writeString(dir.resolve("journal.jsonl"), "{\"prNumber\":2,\"sta", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertEquals(1, store.recovered().size());
+            store.put(state(3, "Pending", -1)).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertEquals(2, store.recovered().size());
+        }
+    }
+
+    @Test
+    void testArchivedStatesAreNotRecovered() throws Exception {
+        try (var store = new StateStore(dir, objectMapper)) {
+            store.put(state(1, "Pending", -1)).join();
+            store.put(state(2, "Build completed successfully", 42)).join();
+            store.archive(state(2, "Build completed successfully", 42)).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertEquals(List.of(state(1, "Pending", -1)), List.copyOf(store.recovered()));
+            // reopened, it starts over
+            store.put(state(2, "Pending", -1)).join();
+        }
+
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertEquals(2, store.recovered().size());
+        }
+        var archived = Files.readAllLines(dir.resolve("archive.jsonl"));
+        assertEquals(1, archived.size());
+        assertTrue(archived.getFirst().contains("\"prNumber\":2"));
+    }
+
+    private static StoredState state(long pr, String status, long commentId) {
+        return new StoredState(pr, status, false, true, commentId, "work/builds/pr-" + pr, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,100 @@
+package io.papermc.proofreader.proofreader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.service.BuildScheduler;
+import io.papermc.proofreader.proofreader.service.StateService.MainState;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import io.papermc.proofreader.proofreader.service.WorkspaceManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WorkspaceManagerTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    Config config;
+    @Mock
+    BuildScheduler scheduler;
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    WorkspaceManager workspaces;
+
+    @BeforeEach
+    void setUp() {
+        when(config.workspaces()).thenReturn(new Config.Workspaces(dir.toString(), DataSize.ofKilobytes(10)));
+        lenient().when(scheduler.isScheduled(anyLong())).thenReturn(false);
+        workspaces = new WorkspaceManager(config, scheduler, registry);
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws Exception {
+        // left by an earlier run, pr-1 is the oldest
+        for (int i = 1; i <= 3; i++) {
+            createWorkspace("pr-" + i, 3);
+            Files.setLastModifiedTime(dir.resolve("pr-" + i), FileTime.fromMillis(1_000_000L * i));
+        }
+        createWorkspace("pr-1-minecraft", 1);
+
+        var state = new State(4);
+        var path = workspaces.acquire(state);
+        assertEquals(path.toString(), state.buildDir);
+        createWorkspace("pr-4", 3);
+        workspaces.release(state);
+
+        // 12k in a 10k budget, evicted down to 9k
+        assertFalse(Files.exists(dir.resolve("pr-1")));
+        assertFalse(Files.exists(dir.resolve("pr-1-minecraft")), "leftovers of older versions are deleted");
+        assertTrue(Files.exists(dir.resolve("pr-2")));
+        assertTrue(Files.exists(dir.resolve("pr-4")));
+        assertEquals(9 * 1024, registry.get("proofreader.workspaces.size").gauge().value());
+        assertEquals(1, registry.get("proofreader.workspaces.evicted").counter().count());
+        try (var files = Files.list(dir)) {
+            assertEquals(3, files.count(), "nothing left in the trash");
+        }
+    }
+
+    @Test
+    void testKeepsWorkspacesInUseAndQueued() throws Exception {
+        var main = new MainState();
+        var inUse = new State(1);
+        createWorkspace("main", 4);
+        createWorkspace("pr-1", 4);
+        createWorkspace("pr-2", 4);
+        createWorkspace("pr-3", 4);
+        when(scheduler.isScheduled(2)).thenReturn(true);
+
+        workspaces.acquire(inUse);
+        workspaces.acquire(main);
+        workspaces.release(main);
+
+        assertTrue(Files.exists(dir.resolve("main")));
+        assertTrue(Files.exists(dir.resolve("pr-1")));
+        assertTrue(Files.exists(dir.resolve("pr-2")));
+        assertFalse(Files.exists(dir.resolve("pr-3")));
+        assertEquals(12 * 1024, registry.get("proofreader.workspaces.size").gauge().value());
+    }
+
+    private void createWorkspace(String name, int kilobytes) throws Exception {
+        var workspace = Files.createDirectories(dir.resolve(name).resolve("paper-server"));
+        Files.write(workspace.resolve("build.gradle.kts"), new byte[kilobytes * 1024]);
+    }
+}
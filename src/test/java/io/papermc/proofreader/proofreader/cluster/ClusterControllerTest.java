@@ -0,0 +1,136 @@
+package io.papermc.proofreader.proofreader.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config.Cluster.Role;
+import io.papermc.proofreader.proofreader.artifact.ArtifactStore;
+import io.papermc.proofreader.proofreader.cluster.Protocol.ClaimRequest;
+import io.papermc.proofreader.proofreader.cluster.Protocol.ClaimResponse;
+import io.papermc.proofreader.proofreader.cluster.Protocol.HeartbeatRequest;
+import io.papermc.proofreader.proofreader.service.BuildScheduler;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.JobSpec;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Kind;
+import io.papermc.proofreader.proofreader.service.BuildScheduler.Priority;
+import io.papermc.proofreader.proofreader.service.StateService;
+import io.papermc.proofreader.proofreader.service.StateService.MainState;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterControllerTest {
+
+    static final String TOKEN = "cluster-secret";
+    static final Duration TIMEOUT = Duration.ofMinutes(1);
+    static final JobSpec BUILD = new JobSpec(Kind.BUILD, true, null);
+
+    @TempDir
+    Path dir;
+    @Mock
+    StateService states;
+    @Mock
+    ArtifactStore artifacts;
+    @Mock
+    Config config;
+
+    BuildScheduler scheduler;
+    ClusterController controller;
+
+    @BeforeEach
+    void setUp() {
+        when(config.builds()).thenReturn(new Config.Builds(1, true, 3));
+        when(config.cluster()).thenReturn(new Config.Cluster(Role.COORDINATOR, "http://localhost:8080", TOKEN, null, Duration.ofSeconds(10), TIMEOUT, Duration.ofSeconds(2)));
+        when(config.artifacts()).thenReturn(new Config.Artifacts(dir.toString(), DataSize.ofGigabytes(1), Duration.ofDays(30)));
+        lenient().when(states.main()).thenReturn(new MainState());
+        scheduler = new BuildScheduler(states, config, task -> fail("nothing runs on the coordinator"), new SimpleMeterRegistry());
+        controller = new ClusterController(scheduler, states, artifacts, config);
+    }
+
+    @Test
+    void testTwoWorkersClaimHeartbeatAndReport() {
+        scheduler.submit(new State(1), Priority.NORMAL, BUILD, handle -> fail("runs on a worker"));
+        scheduler.submit(new State(2), Priority.NORMAL, BUILD, handle -> fail("runs on a worker"));
+
+        var a = claim("worker-a");
+        var b = claim("worker-b");
+        assertEquals(1, a.state().prNumber());
+        assertEquals(2, b.state().prNumber());
+        assertEquals(HttpStatus.NO_CONTENT, controller.claim(TOKEN, new ClaimRequest("worker-c")).getStatusCode());
+
+        assertEquals(List.of(), heartbeat("worker-a", a.id()));
+        assertEquals(List.of(), heartbeat("worker-b", b.id()));
+        // only the holder of a job keeps it alive
+        assertEquals(List.of(a.id()), heartbeat("worker-b", a.id()));
+
+        var building = new State(1);
+        building.status = "Building";
+        var report = building.toStored();
+        controller.state(TOKEN, a.id(), "worker-a", report);
+        verify(states).updateFromWorker(report);
+        var e = assertThrows(ResponseStatusException.class, () -> controller.state(TOKEN, b.id(), "worker-a", report));
+        assertEquals(HttpStatus.CONFLICT, e.getStatusCode());
+
+        controller.complete(TOKEN, a.id(), "worker-a");
+        assertFalse(scheduler.isScheduled(1));
+        assertEquals(List.of(a.id()), heartbeat("worker-a", a.id()));
+    }
+
+    @Test
+    void testJobOfDeadWorkerGoesToTheOther() {
+        scheduler.submit(new State(1), Priority.NORMAL, BUILD, handle -> fail("runs on a worker"));
+        var b = claim("worker-b");
+        var workerBSeen = System.nanoTime();
+
+        var workerASeen = System.nanoTime();
+        while (workerASeen == workerBSeen) {
+            workerASeen = System.nanoTime();
+        }
+        assertEquals(HttpStatus.NO_CONTENT, controller.claim(TOKEN, new ClaimRequest("worker-a")).getStatusCode());
+        scheduler.reapDeadWorkers(workerASeen + TIMEOUT.toNanos());
+
+        var a = claim("worker-a");
+        assertEquals(1, a.state().prNumber());
+        assertEquals(List.of(b.id()), heartbeat("worker-b", b.id()));
+        var stale = new State(1).toStored();
+        var e = assertThrows(ResponseStatusException.class, () -> controller.state(TOKEN, b.id(), "worker-b", stale));
+        assertEquals(HttpStatus.CONFLICT, e.getStatusCode());
+        verify(states, never()).updateFromWorker(stale);
+    }
+
+    @Test
+    void testRequiresTheSecret() {
+        var e = assertThrows(ResponseStatusException.class, () -> controller.heartbeat("wrong", new HeartbeatRequest("worker-a", List.of())));
+        assertEquals(HttpStatus.FORBIDDEN, e.getStatusCode());
+    }
+
+    private ClaimResponse claim(String worker) {
+        var response = controller.claim(TOKEN, new ClaimRequest(worker));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return Objects.requireNonNull(response.getBody());
+    }
+
+    private List<Long> heartbeat(String worker, long job) {
+        return controller.heartbeat(TOKEN, new HeartbeatRequest(worker, List.of(job))).cancel();
+    }
+}
@@ -0,0 +1,110 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.papermc.proofreader.proofreader.github.Model.Action;
+import io.papermc.proofreader.proofreader.github.Model.AuthorAssociation;
+import io.papermc.proofreader.proofreader.github.Model.PullRequestPayload;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.MapperFeature;
+import tools.jackson.databind.cfg.EnumFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookParserTest {
+
+    WebhookParser parser = new WebhookParser(JsonMapper.builder().build());
+
+    @Test
+    void testParsePush() {
+        var json = """
+                {"ref":"refs/heads/main","before":"aaa","after":"bbb","commits":[{"id":"x","modified":["a","b"]}],
+                 "repository":{"id":1,"owner":{"login":"PaperMC"},"full_name":"PaperMC/Paper","topics":["a"]},"sender":{"login":"someone"}}
+                """;
+        var bytes = ("push\n" + json).getBytes(StandardCharsets.UTF_8);
+
+        var event = parser.parsePush(bytes, 5, bytes.length - 5);
+
+        assertEquals("refs/heads/main", event.ref());
+        assertEquals("bbb", event.after());
+        assertEquals("PaperMC/Paper", event.repository());
+    }
+
+    @Test
+    void testParseEditedIssueComment() {
+        var json = """
+                {"action":"edited","changes":{"body":{"from":"- [ ] Force Update"}},
+                 "issue":{"number":12,"user":{"login":"a","id":1},"labels":[],"pull_request":{"url":"x"}},
+                 "comment":{"id":99,"user":{"login":"b","id":2},"body":"- [x] Force Update","author_association":"member","reactions":{"+1":0}},
+                 "repository":{"full_name":"PaperMC/Paper"}}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        var event = parser.parseIssueComment(json, 0, json.length);
+
+        assertEquals(Action.EDITED, event.action());
+        assertEquals(12, event.issueNumber());
+        assertEquals(99, event.commentId());
+        assertEquals("- [x] Force Update", event.body());
+        assertEquals("- [ ] Force Update", event.previousBody());
+        assertEquals(AuthorAssociation.MEMBER, event.authorAssociation());
+        assertEquals("PaperMC/Paper", event.repository());
+    }
+
+    @Test
+    void testParseCreatedIssueCommentWithoutChanges() {
+        var json = """
+                {"action":"created","issue":{"number":3},"comment":{"id":5,"body":"/rebase","author_association":"OWNER"},"repository":{"full_name":"PaperMC/Paper"}}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        var event = parser.parseIssueComment(json, 0, json.length);
+
+        assertEquals(Action.CREATED, event.action());
+        assertNull(event.previousBody());
+    }
+
+    @Test
+    void testUnknownActions() {
+        var comment = """
+                {"action":"pinned","issue":{"number":3},"comment":{"id":5,"body":"hi","author_association":"NONE"},"repository":{"full_name":"PaperMC/Paper"}}
+                """.getBytes(StandardCharsets.UTF_8);
+        assertEquals(Action.UNKNOWN, parser.parseIssueComment(comment, 0, comment.length).action());
+
+        var mapper = JsonMapper.builder()
+                .enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+                .enable(EnumFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE)
+                .build();
+        var pullRequest = mapper.readValue("""
+                {"action":"labeled","number":3,"repository":{"full_name":"PaperMC/Paper"}}
+                """, PullRequestPayload.class);
+        assertEquals(Action.UNKNOWN, pullRequest.action());
+    }
+
+    @Test
+    void testSignature() throws Exception {
+        var payload = "{\"zen\":\"Keep it logically awesome.\"}".getBytes(StandardCharsets.UTF_8);
+        var mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        var signature = "sha256=" + HexFormat.of().formatHex(mac.doFinal(payload));
+
+        var signatures = new WebhookSignature("secret");
+
+        assertTrue(signatures.isValid(payload, signature));
+        // nothing of the previous request may stick to the prototype
+        assertTrue(signatures.isValid(payload, signature));
+        assertFalse(signatures.isValid(payload, signature.replace('a', 'b').replace('1', '2')));
+        assertFalse(signatures.isValid(payload, "sha256=zz"));
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var checks = IntStream.range(0, 1000).mapToObj(i -> executor.submit(() -> signatures.isValid(payload, signature))).toList();
+            for (var check : checks) {
+                assertTrue(check.get(), "requests verified side by side");
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.papermc.proofreader.proofreader.github;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WebhookQueueTest {
+
+    static final byte[] PAYLOAD = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+    @Mock
+    WebhookHandler handler;
+    @Mock
+    Config config;
+    @Mock
+    TaskScheduler taskScheduler;
+
+    List<Runnable> scheduled = new CopyOnWriteArrayList<>();
+    WebhookQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        when(config.webhooks()).thenReturn(new Config.Webhooks(dir.toString(), 1));
+        lenient().when(taskScheduler.schedule(any(Runnable.class), any(Instant.class))).thenAnswer(invocation -> {
+            scheduled.add(invocation.getArgument(0));
+            return null;
+        });
+        queue = new WebhookQueue(handler, config, taskScheduler, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Test
+    void testTransientFailureIsRetried() {
+        doThrow(new RuntimeException("502 Bad Gateway")).doNothing().when(handler).handle(eq("push"), any(), anyInt(), anyInt());
+
+        assertTrue(queue.enqueue("delivery-1", "push", PAYLOAD));
+        await(() -> !scheduled.isEmpty());
+        assertTrue(Files.exists(dir.resolve("pending").resolve("delivery-1")), "kept until it was handled");
+
+        scheduled.removeFirst().run();
+        await(() -> !Files.exists(dir.resolve("pending").resolve("delivery-1")));
+        verify(handler, times(2)).handle(eq("push"), any(), anyInt(), anyInt());
+        await(() -> processed("delivery-1"));
+        assertFalse(queue.enqueue("delivery-1", "push", PAYLOAD), "redeliveries are dropped once it's handled");
+        assertFalse(Files.exists(dir.resolve("failed").resolve("delivery-1")));
+    }
+
+    @Test
+    void testUnparseablePayloadIsDeadLettered() {
+        doThrow(new IllegalArgumentException("Webhook payload is missing ref")).when(handler).handle(eq("push"), any(), anyInt(), anyInt());
+
+        assertTrue(queue.enqueue("delivery-2", "push", PAYLOAD));
+        await(() -> Files.exists(dir.resolve("failed").resolve("delivery-2")));
+        await(() -> processed("delivery-2"));
+        assertFalse(queue.enqueue("delivery-2", "push", PAYLOAD));
+        assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    void testMalformedPendingFileIsDeadLettered() throws Exception {
+        doNothing().when(handler).handle(any(), any(), anyInt(), anyInt());
+        // torn before the event line was complete
+        Files.writeString(dir.resolve("pending").resolve("delivery-3"), "pull_req");
+        Files.writeString(dir.resolve("pending").resolve("delivery-4"), "push\n{}");
+
+        queue.replay();
+        await(() -> Files.exists(dir.resolve("failed").resolve("delivery-3")));
+        await(() -> !Files.exists(dir.resolve("pending").resolve("delivery-4")));
+        verify(handler, never()).handle(eq("pull_req"), any(), anyInt(), anyInt());
+        await(() -> processed("delivery-3"));
+        try (var failed = Files.list(dir.resolve("failed"))) {
+            assertEquals(1, failed.count());
+        }
+    }
+
+    private boolean processed(String deliveryId) {
+        try {
+            var log = dir.resolve("processed.log");
+            return Files.exists(log) && Files.readAllLines(log).contains(deliveryId);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        var deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the queue");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
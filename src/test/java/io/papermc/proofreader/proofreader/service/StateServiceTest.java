@@ -0,0 +1,111 @@
+package io.papermc.proofreader.proofreader.service;
+
+import io.papermc.proofreader.proofreader.ProofReaderConfig.Config;
+import io.papermc.proofreader.proofreader.cluster.ClusterClient;
+import io.papermc.proofreader.proofreader.service.StateService.State;
+import io.papermc.proofreader.proofreader.service.StateStore.StoredState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StateServiceTest {
+
+    @TempDir
+    Path dir;
+    @Mock
+    CommentService comments;
+    @Mock
+    ClusterClient cluster;
+    @Mock
+    Config config;
+
+    JsonMapper objectMapper = JsonMapper.builder().build();
+    StateService states;
+
+    @BeforeEach
+    void setUp() {
+        when(config.storage()).thenReturn(new Config.Storage(dir.toString(), dir.resolve("history.git").toString(), DataSize.ofGigabytes(10), Duration.ofDays(1)));
+        states = new StateService(comments, cluster, config, objectMapper);
+    }
+
+    @AfterEach
+    void tearDown() {
+        states.close();
+    }
+
+    @Test
+    void testArchivedStateStaysArchivedUnderConcurrentUpdates() throws Exception {
+        for (int pr = 1; pr <= 100; pr++) {
+            var state = states.getState(pr);
+            var start = new CountDownLatch(1);
+            var updater = Thread.ofPlatform().start(() -> {
+                await(start);
+                for (int i = 0; i < 20; i++) {
+                    synchronized (state) {
+                        state.status = "Building " + i;
+                    }
+                    states.updateState(state);
+                }
+            });
+            var archiver = Thread.ofPlatform().start(() -> {
+                await(start);
+                states.archive(state);
+            });
+            start.countDown();
+            updater.join();
+            archiver.join();
+
+            assertNull(states.findState(pr), "#" + pr + " was brought back after it was archived");
+        }
+
+        states.close();
+        try (var store = new StateStore(dir, objectMapper)) {
+            assertTrue(store.recovered().isEmpty(), "an update was journaled after the tombstone");
+        }
+    }
+
+    @Test
+    void testWorkerReportsForClosedPrsAreDropped() {
+        var state = states.getState(1);
+        states.archive(state);
+
+        states.updateFromWorker(report(1));
+        states.updateFromWorker(report(2));
+        assertNull(states.findState(1));
+        assertNull(states.findState(2));
+
+        var open = states.getState(3);
+        states.updateFromWorker(report(3));
+        assertEquals("Building", open.status);
+    }
+
+    private static StoredState report(long prNumber) {
+        var state = new State(prNumber);
+        state.status = "Building";
+        return state.toStored();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}